@@ -0,0 +1,66 @@
+package edu.stanford.cs276;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Models built once per benchmark fork from the synthetic corpus and edits of the benchmark
+ * resources, which are copied to a temporary directory that is deleted after the fork. The lexicon
+ * trie is saved to the working directory, where the candidate generator looks for it.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkModels {
+
+    private static final String[] CORPUS_FILES = {"doc0.txt", "doc1.txt"};
+
+    LanguageModel languageModel;
+    NoisyChannelModel noisyChannelModel;
+    CandidateGenerator candidateGenerator;
+
+    private Path dir;
+
+    @Setup
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("cs276-bench");
+        Path corpus = Files.createDirectories(dir.resolve("corpus"));
+        for (String name : CORPUS_FILES) {
+            copyResource("/corpus/" + name, corpus.resolve(name));
+        }
+        copyResource("/edit1s.txt", dir.resolve("edit1s.txt"));
+
+        languageModel = LanguageModel.create(corpus.toString(), 1);
+        noisyChannelModel = NoisyChannelModel.create(dir.resolve("edit1s.txt").toString());
+        noisyChannelModel.setProbabilityType("empirical");
+        Lexicon.create(languageModel).save();
+        candidateGenerator = CandidateGenerator.get();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        // children before their directory
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static void copyResource(String name, Path target) throws IOException {
+        try (InputStream in = BenchmarkModels.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IOException("missing benchmark resource " + name);
+            }
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
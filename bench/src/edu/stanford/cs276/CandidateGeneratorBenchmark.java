@@ -0,0 +1,38 @@
+package edu.stanford.cs276;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Candidates of a single word: one with dictionary words at distance 1, and one that has none and
+ * falls back to distance 2. The alternatives cache is cleared before each call, so that every call
+ * generates the candidates.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CandidateGeneratorBenchmark {
+
+    @Param({"hopujn", "peloboz"})
+    public String word;
+
+    @Benchmark
+    public List<List<Candidate>> getCandidates(BenchmarkModels models) throws Exception {
+        models.candidateGenerator.clearCache();
+        return models.candidateGenerator.getCandidates(models.noisyChannelModel, models.languageModel, word);
+    }
+}
@@ -0,0 +1,60 @@
+package edu.stanford.cs276;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end correction of a query by a {@link Corrector}, as done by RunCorrector: candidate
+ * generation, then decoding. The corrector has no correction cache, and the alternatives cache is
+ * cleared before each call. Decoders are compared by DecoderBenchmark.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CorrectionBenchmark {
+
+    @Param({"short-correct", "short-misspelled", "long-correct", "long-misspelled"})
+    public String query;
+
+    private String text;
+    private Corrector corrector;
+
+    @Setup
+    public void setUp(BenchmarkModels models) throws Exception {
+        switch (query) {
+            case "short-correct":
+                text = "kaface timejun sugri";
+                break;
+            case "short-misspelled":
+                text = "lohopvi ordvifa peloboz";
+                break;
+            case "long-correct":
+                text = "booknejun grifacebook booknejun timefaceyork dorhopface";
+                break;
+            default:
+                text = "dophop fordtelne kahopto hopujn toquotel stankapel";
+                break;
+        }
+        corrector = new Corrector(models.languageModel, models.noisyChannelModel);
+    }
+
+    @Benchmark
+    public Corrector.Correction correct(BenchmarkModels models) throws Exception {
+        models.candidateGenerator.clearCache();
+        return corrector.correct(text);
+    }
+}
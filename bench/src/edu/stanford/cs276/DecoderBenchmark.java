@@ -0,0 +1,62 @@
+package edu.stanford.cs276;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static edu.stanford.cs276.Config.BEAM_WIDTH;
+
+/**
+ * Decoding alone, with the lattice decoder and with the A* decoder, for queries of 4, 8 and 15
+ * words whose candidates are generated once.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecoderBenchmark {
+
+    private static final String WORDS = "lohopvi ordvifa peloboz dophop fordtelne kahopto hopujn toquotel "
+            + "stankapel booknejun grifacebook timefaceyork dorhopface kaface timejun";
+
+    @Param({"4", "8", "15"})
+    public int length;
+
+    private String[] words;
+    private List<List<Candidate>> candidates;
+    private LatticeDecoder latticeDecoder;
+    private AStarDecoder aStarDecoder;
+
+    @Setup
+    public void setUp(BenchmarkModels models) throws Exception {
+        String[] all = WORDS.split(" ");
+        words = new String[length];
+        System.arraycopy(all, 0, words, 0, length);
+        candidates = models.candidateGenerator.getCandidates(models.noisyChannelModel, models.languageModel, String.join(" ", words));
+        latticeDecoder = new LatticeDecoder(models.languageModel, models.noisyChannelModel.ecm_, BEAM_WIDTH);
+        aStarDecoder = new AStarDecoder(models.languageModel, models.noisyChannelModel.ecm_);
+    }
+
+    @Benchmark
+    public Object lattice() {
+        return latticeDecoder.decode(words, candidates, 1);
+    }
+
+    @Benchmark
+    public Object aStar() {
+        return aStarDecoder.decode(words, candidates);
+    }
+}
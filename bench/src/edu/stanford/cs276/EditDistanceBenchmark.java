@@ -0,0 +1,62 @@
+package edu.stanford.cs276;
+
+import edu.stanford.cs276.util.DamerauLevenshtein;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Edit distance between a query word and a candidate, as computed when ranking candidates.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EditDistanceBenchmark {
+
+    @Param({"short", "long", "far"})
+    public String pair;
+
+    private String word;
+    private String candidate;
+
+    @Setup
+    public void setUp() {
+        switch (pair) {
+            case "short":
+                word = "hopujn";
+                candidate = "hopjun";
+                break;
+            case "long":
+                word = "grifacoebook";
+                candidate = "grifacebook";
+                break;
+            default:
+                word = "peloboz";
+                candidate = "telfacelo";
+                break;
+        }
+    }
+
+    @Benchmark
+    public int editDistance() {
+        return DamerauLevenshtein.editDistance(word, candidate);
+    }
+
+    @Benchmark
+    public int editDistanceWithin2() {
+        return DamerauLevenshtein.editDistance(word, candidate, 2);
+    }
+}
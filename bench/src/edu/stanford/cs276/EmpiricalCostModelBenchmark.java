@@ -0,0 +1,39 @@
+package edu.stanford.cs276;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Channel log probability of a candidate, for each kind of edit, for an unchanged word and for a
+ * candidate two edits away.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EmpiricalCostModelBenchmark {
+
+    private static final String[][] EDITS = {
+            {"hopujn", "hopjun"}, {"fodrep", "fordrep"}, {"yorkvijkun", "yorkvijun"},
+            {"benzacera", "benfacera"}, {"stanford", "stanford"}, {"peloboz", "pelobox"}};
+
+    private int next;
+
+    @Benchmark
+    public double logEditProbability(BenchmarkModels models) {
+        next = (next + 1) % EDITS.length;
+        String[] edit = EDITS[next];
+        return models.noisyChannelModel.empiricalCostModel.logEditProbability(edit[0], edit[1], 1);
+    }
+}
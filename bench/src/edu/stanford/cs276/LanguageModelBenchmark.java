@@ -0,0 +1,64 @@
+package edu.stanford.cs276;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bigram lookups, for bigrams that occur in the corpus and bigrams that do not, and the log
+ * probabilities that the decoder adds up.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LanguageModelBenchmark {
+
+    private static final String[] BIGRAMS = {
+            "kaface timejun", "timejun sugri", "booknejun grifacebook", "dorgri faldorford",
+            "kaface sugri", "ford hopjun", "peltimenew kami", "benhop repmi"};
+
+    private int[] firstIds;
+    private int[] secondIds;
+    private int next;
+
+    @Setup
+    public void setUp(BenchmarkModels models) {
+        firstIds = new int[BIGRAMS.length];
+        secondIds = new int[BIGRAMS.length];
+        for (int i = 0; i < BIGRAMS.length; ++i) {
+            String[] terms = BIGRAMS[i].split(" ");
+            firstIds[i] = models.languageModel.wordId(terms[0]);
+            secondIds[i] = models.languageModel.wordId(terms[1]);
+        }
+    }
+
+    @Benchmark
+    public double getBigramProbabilityOfString(BenchmarkModels models) {
+        next = (next + 1) % BIGRAMS.length;
+        return models.languageModel.getBigramProbability(BIGRAMS[next]);
+    }
+
+    @Benchmark
+    public double getBigramProbabilityOfIds(BenchmarkModels models) {
+        next = (next + 1) % BIGRAMS.length;
+        return models.languageModel.getBigramProbability(firstIds[next], secondIds[next]);
+    }
+
+    @Benchmark
+    public double logProbability(BenchmarkModels models) {
+        next = (next + 1) % BIGRAMS.length;
+        return models.languageModel.logProbability(firstIds[next], secondIds[next]);
+    }
+}
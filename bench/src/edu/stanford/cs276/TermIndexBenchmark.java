@@ -0,0 +1,51 @@
+package edu.stanford.cs276;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups of a word in each kind of term index, at distance 1 and 2: the trie that the models are
+ * built with by default, and the symmetric-delete index.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TermIndexBenchmark {
+
+    @Param({TermIndex.TRIE, TermIndex.DELETES})
+    public String index;
+
+    @Param({"hopujn", "peloboz"})
+    public String word;
+
+    private TermIndex termIndex;
+
+    @Setup
+    public void setUp(BenchmarkModels models) {
+        termIndex = TermIndex.create(index, models.languageModel);
+    }
+
+    @Benchmark
+    public int[] lookupWithin1() {
+        return termIndex.lookup(word, 1);
+    }
+
+    @Benchmark
+    public int[] lookupWithin2() {
+        return termIndex.lookup(word, 2);
+    }
+}
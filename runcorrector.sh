@@ -1,2 +1,2 @@
 #!/bin/bash
-java -Xmx2048m -cp classes edu.stanford.cs276.RunCorrector $@
+java -Xmx2048m -cp classes edu.stanford.cs276.RunCorrector "$@"
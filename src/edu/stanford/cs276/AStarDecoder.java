@@ -0,0 +1,224 @@
+package edu.stanford.cs276;
+
+import edu.stanford.cs276.util.Histogram;
+import edu.stanford.cs276.util.Metrics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Finds the best correction of a query with an A* search over the lattice of its word candidates
+ * (see {@link LatticeDecoder} for the lattice and the scores). A hypothesis is a path from the start
+ * of the query to a position of the lattice; it is ranked by its score plus an upper bound of what
+ * the rest of the query can add. The bounds are computed by dynamic programming from the end of the
+ * query: the bound of a position is the best, over the candidates that start there, of the bound of
+ * the position where the candidate ends plus the candidate's channel score and the best language
+ * model score any previous term could give it ({@link LanguageModel#maxLogProbability(int)}).
+ * <p>
+ * The bound never underestimates and only tightens along a path, so the first complete path taken
+ * off the queue is the best one, and the first path that reaches a candidate is the best path to
+ * it: later ones are dropped unexpanded. Unlike the beam of the lattice decoder, the result is
+ * exact whatever the number of candidates, and when one correction stands out, few hypotheses
+ * besides its own path are ever expanded.
+ */
+public class AStarDecoder {
+
+    // slack added to the bounds, so that rounding errors never make them underestimate
+    private static final double BOUND_SLACK = 1e-9;
+
+    // time spent on the channel scores of the candidates, and on the search, which is mostly
+    // language model scoring of the paths, per query
+    private static final Histogram CHANNEL_LATENCY = Metrics.latency("decode.channel");
+    private static final Histogram SEARCH_LATENCY = Metrics.latency("decode.search");
+    private static final Histogram EXPANSIONS = Metrics.histogram("decode.expansions", "hypotheses");
+
+    private final LanguageModel lm;
+    private final EditCostModel ecm;
+
+    public AStarDecoder(LanguageModel lm, EditCostModel ecm) {
+        this.lm = lm;
+        this.ecm = ecm;
+    }
+
+    /**
+     * @param queryWords the words of the query
+     * @param candidates the candidates of each query word
+     * @return the best correction, terms separated by single spaces, with its score and the number
+     * of hypotheses expanded to find it
+     */
+    public Result decode(String[] queryWords, List<List<Candidate>> candidates) {
+        int n = queryWords.length;
+
+        // starts[p]: the candidates that start at position p, before query word p
+        Node[][] starts = new Node[n][];
+        int nodeCount = 0;
+        long channelNanos = 0;
+        for (int p = 0; p < n; ++p) {
+            List<Candidate> column = candidates.get(p);
+            int count = 0;
+            for (Candidate candidate : column) {
+                count += p + candidate.words <= n ? 1 : 0;
+            }
+            starts[p] = new Node[count];
+            int c = 0;
+            for (Candidate candidate : column) {
+                if (p + candidate.words > n) {
+                    continue;
+                }
+                String original = candidate.words == 1 ? queryWords[p] : String.join(" ", Arrays.copyOfRange(queryWords, p, p + candidate.words));
+                long start = System.nanoTime();
+                double channel = ecm.logEditProbability(original, candidate.word, LatticeDecoder.channelDistance(original, candidate));
+                channelNanos += System.nanoTime() - start;
+                starts[p][c++] = new Node(candidate, nodeCount++, p, channel);
+            }
+        }
+
+        // remaining[p]: upper bound of the score that the candidates after position p add to a path
+        double[] remaining = new double[n + 1];
+        for (int p = n - 1; p > 0; --p) {
+            double bound = Double.NEGATIVE_INFINITY;
+            for (Node node : starts[p]) {
+                bound = Math.max(bound, remaining[node.end] + (node.channel + lm.maxLogProbability(node.ids[0]) + node.inner));
+            }
+            remaining[p] = Double.isInfinite(bound) ? bound : bound + BOUND_SLACK * (1 + Math.abs(bound));
+        }
+
+        CHANNEL_LATENCY.record(channelNanos);
+        long searchStart = System.nanoTime();
+
+        PriorityQueue<Hypothesis> queue = new PriorityQueue<>();
+        boolean[] expanded = new boolean[nodeCount];
+
+        long sequence = 0;
+        for (Node node : starts[0]) {
+            // first term: unigram probability
+            double p = extend(lm.logProbability(node.ids[0]), node);
+            queue.add(new Hypothesis(null, node, p, node.channel, remaining[node.end], sequence++));
+        }
+
+        int expansions = 0;
+        Hypothesis h;
+        while ((h = queue.poll()) != null) {
+            if (expanded[h.node.index]) {
+                // a better path to this candidate was expanded already
+                continue;
+            }
+            expanded[h.node.index] = true;
+            expansions++;
+            if (h.node.end == n) {
+                SEARCH_LATENCY.recordSince(searchStart);
+                EXPANSIONS.record(expansions);
+                return new Result(h.text(), h.score(), expansions);
+            }
+
+            for (Node node : starts[h.node.end]) {
+                if (expanded[node.index]) {
+                    continue;
+                }
+                double p = extend(h.lm + lm.logProbability(h.node.lastId(), node.ids[0]), node);
+                queue.add(new Hypothesis(h, node, p, h.channel + node.channel, remaining[node.end], sequence++));
+            }
+        }
+        throw new IllegalStateException("No path through the lattice of: " + String.join(" ", queryWords));
+    }
+
+    // adds the bigrams inside the candidate of the passed node to the language model score p
+    private double extend(double p, Node node) {
+        for (int j = 1; j < node.ids.length; ++j) {
+            p += lm.logProbability(node.ids[j - 1], node.ids[j]);
+        }
+        return p;
+    }
+
+    /**
+     * The best correction of a query, and how many hypotheses the search expanded.
+     */
+    public static class Result {
+        public final String correction;
+        public final double score;
+        public final int expansions;
+
+        Result(String correction, double score, int expansions) {
+            this.correction = correction;
+            this.score = score;
+            this.expansions = expansions;
+        }
+    }
+
+    /**
+     * A candidate of the query words from position start to end, with its channel score and the
+     * language model score of the bigrams inside it.
+     */
+    private class Node {
+        final Candidate candidate;
+        final int index;
+        final int end;
+        final int[] ids;
+        final double channel;
+        final double inner;
+
+        Node(Candidate candidate, int index, int start, double channel) {
+            this.candidate = candidate;
+            this.index = index;
+            this.end = start + candidate.words;
+            String[] terms = candidate.word.split(" ");
+            ids = new int[terms.length];
+            for (int j = 0; j < terms.length; ++j) {
+                ids[j] = lm.wordId(terms[j]);
+            }
+            this.channel = channel;
+            inner = extend(0, this);
+        }
+
+        int lastId() {
+            return ids[ids.length - 1];
+        }
+    }
+
+    /**
+     * A path from the start of the query, ending with the candidate of node. Scores are summed as in
+     * the lattice decoder, so that both decoders score a correction the same. Among hypotheses with
+     * the same bound, which happens when an unknown term makes every bound negative infinity, the
+     * best scoring one is taken first, then the first one created: this picks the path that the
+     * lattice decoder picks among equally (im)probable ones.
+     */
+    private static class Hypothesis implements Comparable<Hypothesis> {
+        final Hypothesis previous;
+        final Node node;
+        final double lm;
+        final double channel;
+        final double bound;
+        final long sequence;
+
+        Hypothesis(Hypothesis previous, Node node, double lm, double channel, double remaining, long sequence) {
+            this.previous = previous;
+            this.node = node;
+            this.lm = lm;
+            this.channel = channel;
+            this.bound = score() + remaining;
+            this.sequence = sequence;
+        }
+
+        double score() {
+            return lm + channel;
+        }
+
+        @Override
+        public int compareTo(Hypothesis other) {
+            int c = Double.compare(other.bound, bound);
+            if (c == 0) {
+                c = Double.compare(other.score(), score());
+            }
+            return c != 0 ? c : Long.compare(sequence, other.sequence);
+        }
+
+        String text() {
+            StringBuilder sb = new StringBuilder(node.candidate.word);
+            for (Hypothesis h = previous; h != null; h = h.previous) {
+                sb.insert(0, ' ').insert(0, h.node.candidate.word);
+            }
+            return sb.toString();
+        }
+    }
+}
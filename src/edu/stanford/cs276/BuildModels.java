@@ -1,5 +1,8 @@
 package edu.stanford.cs276;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class BuildModels {
 
     public static double MU = .05;
@@ -11,28 +14,80 @@ public class BuildModels {
         String trainingCorpus = null;
         String editsFile = null;
         String extra = null;
-        if (args.length == 2 || args.length == 3) {
+
+        // number of threads reading the corpus
+        int threads = Runtime.getRuntime().availableProcessors();
+        // directory of new documents to add to the saved language model, instead of building the models
+        String newDocuments = null;
+        // megabytes in which to estimate the bigram counts, 0 to count them exactly
+        long sketchMegabytes = 0;
+        // megabytes of counts beyond which they are spilled to disk, 0 to count in memory only
+        long spillMegabytes = 0;
+        // the index of the vocabulary that the candidate generator looks words up in (see TermIndex),
+        // by default a trie, or with --update the type of the saved one
+        String index = null;
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; ++i) {
+            if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("--update".equals(args[i]) && i + 1 < args.length) {
+                newDocuments = args[++i];
+            } else if ("--sketch".equals(args[i]) && i + 1 < args.length) {
+                sketchMegabytes = Long.parseLong(args[++i]);
+            } else if ("--spill".equals(args[i]) && i + 1 < args.length) {
+                spillMegabytes = Long.parseLong(args[++i]);
+            } else if ("--index".equals(args[i]) && i + 1 < args.length) {
+                index = args[++i];
+            } else {
+                positional.add(args[i]);
+            }
+        }
+        args = positional.toArray(new String[0]);
+
+        if (newDocuments != null && args.length == 0) {
+            // the noisy channel model does not depend on the corpus
+            System.out.println("new documents: " + newDocuments);
+            languageModel = LanguageModel.load().update(newDocuments, threads);
+            languageModel.save();
+            if (index == null) {
+                index = TermIndex.savedType();
+            }
+            TermIndex.create(index != null ? index : TermIndex.TRIE, languageModel).save();
+            return;
+        } else if (newDocuments == null && (args.length == 2 || args.length == 3)) {
             trainingCorpus = args[0];
             editsFile = args[1];
             if (args.length == 3) extra = args[2];
         } else {
             System.err.println(
-                    "Invalid arguments.  Argument count must 2 or 3 \n"
-                            + "./buildmodels <training corpus dir> <training edit1s file> \n"
-                            + "./buildmodels <training corpus dir> <training edit1s file> <extra> \n"
+                    "Invalid arguments.  Argument count must 2 or 3, or 0 with --update \n"
+                            + "./buildmodels [--threads N] <training corpus dir> <training edit1s file> \n"
+                            + "./buildmodels [--threads N] <training corpus dir> <training edit1s file> <extra> \n"
+                            + "./buildmodels [--threads N] --sketch <megabytes> <training corpus dir> <training edit1s file> \n"
+                            + "./buildmodels [--threads N] --spill <megabytes> <training corpus dir> <training edit1s file> \n"
+                            + "./buildmodels [--threads N] [--index <trie | deletes>] --update <new documents dir> \n"
+                            + "./buildmodels [--index <trie | deletes>] ... (the index of the vocabulary, a trie by default, or with --update the saved one) \n"
                             + "SAMPLE: ./buildmodels data/corpus data/edit1s.txt \n"
-                            + "SAMPLE: ./buildmodels data/corpus data/edit1s.txt extra \n");
+                            + "SAMPLE: ./buildmodels data/corpus data/edit1s.txt extra \n"
+                            + "SAMPLE: ./buildmodels --threads 8 data/corpus data/edit1s.txt \n"
+                            + "SAMPLE: ./buildmodels --sketch 256 data/corpus data/edit1s.txt \n"
+                            + "SAMPLE: ./buildmodels --spill 512 data/corpus data/edit1s.txt \n"
+                            + "SAMPLE: ./buildmodels --update data/new_documents \n"
+                            + "SAMPLE: ./buildmodels --index deletes data/corpus data/edit1s.txt \n");
             return;
         }
         System.out.println("training corpus: " + args[0]);
 
-        languageModel = LanguageModel.create(trainingCorpus);
+        languageModel = LanguageModel.create(trainingCorpus, threads, sketchMegabytes << 20, spillMegabytes << 20);
         noisyChannelModel = NoisyChannelModel.create(editsFile);
 
         // Save the models to disk
         noisyChannelModel.save();
         languageModel.save();
 
+        // Index the vocabulary for the candidate generator
+        TermIndex.create(index != null ? index : TermIndex.TRIE, languageModel).save();
+
         if ("extra".equals(extra)) {
       /*
        * If you want to experiment with some form of extra credit in the 
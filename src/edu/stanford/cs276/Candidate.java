@@ -0,0 +1,33 @@
+package edu.stanford.cs276;
+
+/**
+ * A dictionary word (a term or a "w1 w2" bigram) that a query word may be corrected to, along with
+ * the number of edits the candidate generator applied to the query word to get there.
+ * <p>
+ * A candidate may also replace several consecutive query words, when they are the pieces of a
+ * single term that was typed with spaces inside ("face book" for "facebook"); it then starts at
+ * the first of them, and the edits include the deleted spaces.
+ */
+public class Candidate {
+
+    public final String word;
+    public final int distance;
+
+    // number of query words the candidate replaces
+    public final int words;
+
+    public Candidate(String word, int distance) {
+        this(word, distance, 1);
+    }
+
+    public Candidate(String word, int distance, int words) {
+        this.word = word;
+        this.distance = distance;
+        this.words = words;
+    }
+
+    @Override
+    public String toString() {
+        return words == 1 ? word + ":" + distance : word + ":" + distance + "/" + words;
+    }
+}
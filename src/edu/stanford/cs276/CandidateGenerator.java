@@ -1,27 +1,55 @@
 package edu.stanford.cs276;
 
 import edu.stanford.cs276.util.Assert;
-import edu.stanford.cs276.util.CartesianProduct;
 import edu.stanford.cs276.util.Comparators;
+import edu.stanford.cs276.util.Counter;
+import edu.stanford.cs276.util.Histogram;
 import edu.stanford.cs276.util.Logger;
+import edu.stanford.cs276.util.Metrics;
 import edu.stanford.cs276.util.Pair;
+import edu.stanford.cs276.util.TopK;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Supplier;
+
+import static edu.stanford.cs276.Config.ALTERNATIVES_CACHE_SIZE;
 
 public class CandidateGenerator implements Serializable {
 
     private static final long serialVersionUID = 1L;
     private static CandidateGenerator cg_;
-    public Map<String, Map<String, Integer>> editDistances = new HashMap<>();
     private static final int MAX_WORD_CANDIDATES = 4;
 
+    // number of terms that two consecutive query words may be merged into
+    private static final int MAX_MERGED_CANDIDATES = 2;
+
+    private static final Histogram GENERATION_LATENCY = Metrics.latency("candidates");
+    private static final Histogram LOOKUP_LATENCY = Metrics.latency("candidates.lookup");
+    private static final Histogram DISTANCE2_LATENCY = Metrics.latency("candidates.distance2");
+    private static final Histogram RANKING_LATENCY = Metrics.latency("candidates.ranking");
+    private static final Histogram ALTERNATIVES_PER_TOKEN = Metrics.histogram("candidates.alternatives", "alternatives");
+    private static final Counter TOKENS = Metrics.counter("candidates.tokens");
+    private static final Counter ECHOED_TOKENS = Metrics.counter("candidates.echoed");
+    private static final Counter MERGED = Metrics.counter("candidates.merged");
+    private static final Counter CACHE_HITS = Metrics.counter("candidates.cache.hits");
+    private static final Counter CACHE_MISSES = Metrics.counter("candidates.cache.misses");
+
+    // dictionary alternatives of recently seen words, with their distances
+    private final transient Map<String, Map<String, Integer>> alternativesCache_ = newCache(ALTERNATIVES_CACHE_SIZE);
+
+    // term index for the language model it was loaded for
+    private transient volatile TermIndex index_;
+    private transient volatile LanguageModel indexModel_;
+
 
     /**
      * Constructor
@@ -35,7 +63,7 @@ public class CandidateGenerator implements Serializable {
     private CandidateGenerator() {
     }
 
-    public static CandidateGenerator get() throws Exception {
+    public static synchronized CandidateGenerator get() throws Exception {
         if (cg_ == null) {
             cg_ = new CandidateGenerator();
         }
@@ -47,72 +75,290 @@ public class CandidateGenerator implements Serializable {
             'u', 'v', 'w', 'x', 'y', 'z', '0', '1', '2', '3', '4', '5', '6', '7',
             '8', '9', ' ', ',', '\''};
 
-    // Generate all candidates for the target query
-    public Set<String> getCandidates(NoisyChannelModel nsm, LanguageModel lm, String query) throws Exception {
+    /**
+     * Generates the candidates of each word of the target query, best ones first. The candidates of
+     * a word are the terms it may be a misspelling of, the bigrams it may be two terms typed without
+     * a space, and the terms that it and the next word may be the pieces of, typed with a space
+     * inside (see {@link Candidate#words}). A correction of the query picks candidates that replace
+     * every query word once (see {@link LatticeDecoder}).
+     */
+    public List<List<Candidate>> getCandidates(NoisyChannelModel nsm, LanguageModel lm, String query) throws Exception {
 
         /*
          * Your code here
          */
 
-        List<List<String>> lists = new ArrayList<>();
+        long start = System.nanoTime();
+        List<List<Candidate>> lists = new ArrayList<>();
 
         String[] words = query.trim().split("\\s+");
 
         for (int i=0; i<words.length; ++i) {
             String w = words[i];
-
-            Pair<Set<String>, Set<String>> sets = getStringsWithinEditDistance1(lm, w, w, 0);
+            TOKENS.increment();
 
             // w alternatives that are valid dictionary terms
-            Set<String> wAlternatives = sets.getFirst();
+            long lookupStart = System.nanoTime();
+            Map<String, Integer> wAlternatives = getCachedDictionaryAlternatives(lm, w);
+            LOOKUP_LATENCY.recordSince(lookupStart);
+            ALTERNATIVES_PER_TOKEN.record(wAlternatives.size());
 
             if (wAlternatives.isEmpty()) {
-                // come up with strings at edit distance of 2
-                Set<String> nonDictAlternatives = sets.getSecond();
-                for (String s : nonDictAlternatives) {
-                    Set<String> wAlternativesAtDistance2 = getStringsWithinEditDistance1(lm, s, w, 1).getFirst();
-                    wAlternatives.addAll(wAlternativesAtDistance2);
+                // we have no choice but to put the miss-spelled word as an alternative to itself
+                wAlternatives = Collections.singletonMap(w, 0);
+                ECHOED_TOKENS.increment();
+            }
+
+            // score each alternative once, and keep the best ones
+            long rankingStart = System.nanoTime();
+            TopK<String> best = new TopK<>(MAX_WORD_CANDIDATES);
+            for (String alternative : wAlternatives.keySet()) {
+                best.offer(alternative, Comparators.languageAndNoisyModelsScore(w, alternative, lm, nsm.ecm_));
+            }
+            RANKING_LATENCY.recordSince(rankingStart);
+
+            List<Candidate> wCandidates = new ArrayList<>(best.size());
+            for (String alternative : best.toList()) {
+                wCandidates.add(new Candidate(alternative, wAlternatives.get(alternative)));
+            }
+            if (i + 1 < words.length) {
+                addMergedCandidates(nsm, lm, words[i] + ' ' + words[i + 1], wCandidates);
+            }
+            lists.add(wCandidates);
+
+            Logger.print(false, "w: " + w + " --> " + wAlternatives.toString());
+
+        } // end for loop
+
+
+        Assert.check(lists.size() > 0, "No candidates found for the query: " + query);
+        GENERATION_LATENCY.recordSince(start);
+        return lists;
+    }
+
+    // adds the best terms that the two query words of pieces ("w1 w2") may be the pieces of to the candidates of w1
+    private void addMergedCandidates(NoisyChannelModel nsm, LanguageModel lm, String pieces, List<Candidate> wCandidates) throws IOException {
+        Map<String, Integer> merged = getCachedMergedAlternatives(lm, pieces);
+        if (merged.isEmpty()) {
+            return;
+        }
+        TopK<String> best = new TopK<>(MAX_MERGED_CANDIDATES);
+        for (String alternative : merged.keySet()) {
+            best.offer(alternative, Comparators.languageAndNoisyModelsScore(pieces, alternative, lm, nsm.ecm_));
+        }
+        for (String alternative : best.toList()) {
+            wCandidates.add(new Candidate(alternative, merged.get(alternative), 2));
+            MERGED.increment();
+        }
+    }
+
+    // looks the alternatives of w up in the cache, computing them if they are not there. The returned map must not be modified
+    private Map<String, Integer> getCachedDictionaryAlternatives(LanguageModel lm, String w) throws IOException {
+        TermIndex index = index(lm);
+        return getCached(w, () -> getDictionaryAlternatives(lm, index, w));
+    }
+
+    // same as above, for the terms that the two words of pieces may be merged into. Query words have
+    // no spaces, so pieces never clashes with a word in the cache
+    private Map<String, Integer> getCachedMergedAlternatives(LanguageModel lm, String pieces) throws IOException {
+        TermIndex index = index(lm);
+        return getCached(pieces, () -> getMergedAlternatives(lm, index, pieces));
+    }
+
+    private Map<String, Integer> getCached(String key, Supplier<Map<String, Integer>> alternatives) {
+        Map<String, Integer> cached;
+        synchronized (alternativesCache_) {
+            cached = alternativesCache_.get(key);
+        }
+        if (cached == null) {
+            CACHE_MISSES.increment();
+            cached = Collections.unmodifiableMap(alternatives.get());
+            synchronized (alternativesCache_) {
+                alternativesCache_.put(key, cached);
+            }
+        } else {
+            CACHE_HITS.increment();
+        }
+        return cached;
+    }
+
+    /**
+     * Returns the terms within edit distance 1 of the two words of pieces joined, mapped to their
+     * distance from pieces, which counts the deleted space. Bigrams are left out: they would only
+     * put the space back, which the candidates of the single words already do.
+     */
+    private Map<String, Integer> getMergedAlternatives(LanguageModel lm, TermIndex index, String pieces) {
+        String joined = pieces.replace(" ", "");
+        Map<String, Integer> merged = new HashMap<>();
+        if (index == null) {
+            for (Map.Entry<String, Integer> e : getStringsWithinEditDistance1(lm, joined, joined, 0).getFirst().entrySet()) {
+                if (e.getKey().indexOf(' ') == -1) {
+                    merged.put(e.getKey(), e.getValue() + 1);
                 }
-                Logger.print(false, "dist2 alternatives of '" + w + "': " + wAlternatives.toString());
             }
+            return merged;
+        }
+
+        if (lm.isDictionaryWord(joined)) {
+            merged.put(joined, 1);
+        }
+        for (int id : index.lookup(joined, 1)) {
+            String term = lm.word(id);
+            if (Edits.isOneEdit(joined, term)) {
+                merged.put(term, 2);
+            }
+        }
+        return merged;
+    }
 
+    /**
+     * Returns the dictionary words within edit distance 1 of w (w included), or the ones within
+     * distance 2 if there are none, mapped to their distance from w. Looks w up in the term index when
+     * there is one for the passed model, and otherwise generates and probes every string within
+     * that distance.
+     */
+    private Map<String, Integer> getDictionaryAlternatives(LanguageModel lm, TermIndex index, String w) {
+        if (index != null) {
+            Map<String, Integer> wAlternatives = getDictionaryWordsWithinEditDistance1(lm, index, w);
             if (wAlternatives.isEmpty()) {
-                // we have no choice but to put the miss-spelled word as an alternative to itself
-                wAlternatives.add(w);
+                long start = System.nanoTime();
+                wAlternatives = getDictionaryWordsAtEditDistance2(lm, index, w);
+                DISTANCE2_LATENCY.recordSince(start);
+                Logger.print(false, "dist2 alternatives of '" + w + "': " + wAlternatives.toString());
+            }
+            return wAlternatives;
+        }
+
+        Pair<Map<String, Integer>, Set<String>> sets = getStringsWithinEditDistance1(lm, w, w, 0);
+        Map<String, Integer> wAlternatives = sets.getFirst();
+
+        if (wAlternatives.isEmpty()) {
+            // come up with strings at edit distance of 2
+            long start = System.nanoTime();
+            Set<String> nonDictAlternatives = sets.getSecond();
+            for (String s : nonDictAlternatives) {
+                Map<String, Integer> wAlternativesAtDistance2 = getStringsWithinEditDistance1(lm, s, w, 1).getFirst();
+                wAlternatives.putAll(wAlternativesAtDistance2);
             }
+            DISTANCE2_LATENCY.recordSince(start);
+            Logger.print(false, "dist2 alternatives of '" + w + "': " + wAlternatives.toString());
+        }
+        return wAlternatives;
+    }
 
-            // sort the alternatives
-            List<String> wAlternativesSorted = new ArrayList<>(wAlternatives);
-            Collections.sort(wAlternativesSorted, Comparators.LANGUAGE_AND_NOISY_MODELS_COMPARATOR(w, lm, nsm.ecm_));
-            Collections.reverse(wAlternativesSorted);
+    /**
+     * Forgets the cached alternatives of the words seen so far.
+     */
+    void clearCache() {
+        synchronized (alternativesCache_) {
+            alternativesCache_.clear();
+        }
+    }
 
-            int max = Math.min(wAlternatives.size(), (words.length >= 4) ? 3 : MAX_WORD_CANDIDATES);
+    // loads the term index the first time it is needed; null when it is missing or built for another model
+    private TermIndex index(LanguageModel lm) throws IOException {
+        if (indexModel_ != lm) {
+            synchronized (this) {
+                if (indexModel_ != lm) {
+                    index_ = TermIndex.load(lm);
+                    synchronized (alternativesCache_) {
+                        // the cached alternatives belong to another model
+                        alternativesCache_.clear();
+                    }
+                    indexModel_ = lm;
+                    Logger.print(false, index_ == null ? "no term index, generating candidates by brute force" : "using the term index " + index_.getClass().getSimpleName());
+                }
+            }
+        }
+        return index_;
+    }
 
-            wAlternativesSorted = wAlternativesSorted.subList(0, max);
+    private Map<String, Integer> getDictionaryWordsWithinEditDistance1(LanguageModel lm, TermIndex index, String w) {
+        Map<String, Integer> dictAlternatives = new HashMap<>();
 
-            lists.add(wAlternativesSorted);
+        if (lm.isDictionaryWord(w)) {
+            dictAlternatives.put(w, 0);
+        }
 
-            Logger.print(false, "w: " + w + " --> " + wAlternatives.toString());
+        for (int id : index.lookup(w, 1)) {
+            String term = lm.word(id);
+            if (Edits.isOneEdit(w, term)) {
+                dictAlternatives.put(term, 1);
+            }
+        }
 
-        } // end for loop
+        // the other dictionary words are the bigrams of the corpus, "w1 w2", which w can only turn
+        // into by inserting a space or by replacing one of its characters with a space. Inserting a
+        // space may also split an unknown w into two terms that never occurred together: the
+        // decoder scores them with the bigram model, which backs off to their unigrams
+        boolean known = lm.wordId(w) >= 0;
+        for (int m = 0; m < w.length(); ++m) {
+            String i = w.substring(0, m) + ' ' + w.substring(m);
+            String s = w.substring(0, m) + ' ' + w.substring(m + 1);
+            if (lm.isDictionaryWord(i) || (!known && m > 0 && lm.wordId(w.substring(0, m)) >= 0 && lm.wordId(w.substring(m)) >= 0)) {
+                dictAlternatives.put(i, 1);
+            }
+            if (lm.isDictionaryWord(s)) {
+                dictAlternatives.put(s, 1);
+            }
+        }
+
+        return dictAlternatives;
+    }
+
+    private Map<String, Integer> getDictionaryWordsAtEditDistance2(LanguageModel lm, TermIndex index, String w) {
+        Map<String, Integer> dictAlternatives = new HashMap<>();
+
+        for (int id : index.lookup(w, 2)) {
+            String term = lm.word(id);
+            if (Edits.isTwoEdits(w, term)) {
+                dictAlternatives.put(term, 2);
+            }
+        }
+
+        // bigrams "x y": the space takes one edit, either inserted between w1 and w2 (w = w1 w2) or
+        // replacing a character c (w = w1 c w2), and the other edit turns w1 into x or w2 into y,
+        // unless it swaps the two characters around the space
+        Set<String> bigrams = new HashSet<>();
+        for (int m = 0; m <= w.length(); ++m) {
+            addBigramsNear(lm, index, w.substring(0, m), w.substring(m), bigrams);
+            if (m < w.length()) {
+                addBigramsNear(lm, index, w.substring(0, m), w.substring(m + 1), bigrams);
+            }
+            if (m > 0 && m < w.length()) {
+                bigrams.add(w.substring(0, m - 1) + w.charAt(m) + ' ' + w.charAt(m - 1) + w.substring(m + 1));
+            }
+        }
+        for (String bigram : bigrams) {
+            if (lm.isDictionaryWord(bigram) && Edits.isTwoEdits(w, bigram)) {
+                dictAlternatives.put(bigram, 2);
+            }
+        }
 
+        return dictAlternatives;
+    }
 
-        List<String> product = CartesianProduct.compute(lists);
-        Assert.check(product.size() > 0, "No candidates found for the query: " + query);
-        return new HashSet<>(product);
+    // adds "w1 w2", and the bigrams "x w2" and "w1 y" where x and y may be one edit away from w1 and w2
+    private static void addBigramsNear(LanguageModel lm, TermIndex index, String w1, String w2, Set<String> bigrams) {
+        bigrams.add(w1 + ' ' + w2);
+        for (int id : index.lookup(w1, 1)) {
+            bigrams.add(lm.word(id) + ' ' + w2);
+        }
+        for (int id : index.lookup(w2, 1)) {
+            bigrams.add(w1 + ' ' + lm.word(id));
+        }
     }
 
-    private Pair<Set<String>, Set<String>> getStringsWithinEditDistance1(LanguageModel lm, String w, String originalW, int passCount) {
+    private Pair<Map<String, Integer>, Set<String>> getStringsWithinEditDistance1(LanguageModel lm, String w, String originalW, int passCount) {
 
-        Set<String> dictAlternatives = new HashSet<>();
+        Map<String, Integer> dictAlternatives = new HashMap<>();
         Set<String> nonDictAlternatives = new HashSet<>();
 
         int dist = 1 + passCount;
 
         if (isDictionaryWord(lm, w)) {
             // the original word itself is a candidate, so we add it to the set
-            dictAlternatives.add(w);
-            updateEditDistances(originalW, originalW, 0);
+            dictAlternatives.put(w, 0);
             //return new Pair<>(dictAlternatives, nonDictAlternatives);
         }
 
@@ -123,24 +369,18 @@ public class CandidateGenerator implements Serializable {
             String d = w.substring(0, m) + w.substring(m + 1);
 
             if (!d.equals(originalW) && isDictionaryWord(lm, d)) {
-                dictAlternatives.add(d);
-                //deletes.add(d);
-                updateEditDistances(originalW, d, dist);
+                dictAlternatives.put(d, dist);
             } else if (!d.equals(originalW) && !isDictionaryWord(lm, d)) {
                 nonDictAlternatives.add(d);
-                updateEditDistances(originalW, d, dist);
             }
 
             if (m != 0) {
                 // switch places between the current char with the previous one
                 String t = "" + w.substring(0, m - 1) + wChars[m] + wChars[m - 1] + w.substring(m + 1);
                 if (!t.equals(originalW) && isDictionaryWord(lm, t)) {
-                    dictAlternatives.add(t);
-                    //transpose.add(t);
-                    updateEditDistances(w, t, dist);
+                    dictAlternatives.put(t, dist);
                 } else if (!t.equals(originalW) && !isDictionaryWord(lm, t)) {
                     nonDictAlternatives.add(t);
-                    updateEditDistances(w, t, dist);
                 }
             }
 
@@ -154,24 +394,18 @@ public class CandidateGenerator implements Serializable {
                 }
 
                 if (!i.equals(originalW) && isDictionaryWord(lm, i)) {
-                    dictAlternatives.add(i);
-                    //inserts.add(i);
-                    updateEditDistances(originalW, i, dist);
+                    dictAlternatives.put(i, dist);
                 } else if (!i.equals(originalW) && !isDictionaryWord(lm, i)) {
                     nonDictAlternatives.add(i);
-                    updateEditDistances(originalW, i, dist);
                 }
 
                 // substitute char at index i with alphabet[j]
                 String s = w.substring(0, m) + alphabet[j] + w.substring(m + 1);
 
                 if (!s.equals(originalW) && isDictionaryWord(lm, s)) {
-                    dictAlternatives.add(s);
-                    //substitutes.add(s);
-                    updateEditDistances(originalW, s, dist);
+                    dictAlternatives.put(s, dist);
                 } else if (!s.equals(originalW) && !isDictionaryWord(lm, s)) {
                     nonDictAlternatives.add(s);
-                    updateEditDistances(originalW, s, dist);
                 }
             }
 
@@ -184,24 +418,17 @@ public class CandidateGenerator implements Serializable {
      * returns true if w appears in the lexicon
      **/
     private static boolean isDictionaryWord(LanguageModel lm, String w) {
-        return lm.unigrams.map().containsKey(w) || lm.bigrams.map().containsKey(w);
+        return lm.isDictionaryWord(w);
     }
 
-    private void updateEditDistances(String from, String to, int distance) {
-
-        if (!editDistances.containsKey(from)) {
-            editDistances.put(from, new HashMap<>());
-        }
-
-        if (from.equals(to)) {
-            //Assert.check(distance == 0, "Edit distance must be 0 for similar strings.");
-            editDistances.get(from).put(to, 0);
-            return;
-        } else {
-            //Assert.check(distance == 1 || distance == 2, "Edit distances other than 1 or 2 are not supported.");
-            editDistances.get(from).put(to, distance);
-        }
-
+    // a map that keeps the size most recently used entries; no entries when size is 0
+    private static Map<String, Map<String, Integer>> newCache(int size) {
+        return new LinkedHashMap<String, Map<String, Integer>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, Integer>> eldest) {
+                return size() > size;
+            }
+        };
     }
 
     private List<String> truncate(List<String> list) {
@@ -9,4 +9,15 @@ public class Config {
     public static final String DIAMOND = "\u2662";
     static final double LAMBDA_1       = 0.1;
     static final double LAMBDA_2       = 0.95;
+
+    // number of candidates of each query word that the lattice decoder keeps after each word
+    static final int BEAM_WIDTH        = 16;
+
+    // number of query words whose candidates are cached by the candidate generator
+    static final int ALTERNATIVES_CACHE_SIZE = 10000;
+
+    // number of query corrections cached by default when the correction cache is on, and number of
+    // independently locked segments it is split into
+    static final int CORRECTION_CACHE_SIZE = 100000;
+    static final int CORRECTION_CACHE_SEGMENTS = 16;
 }
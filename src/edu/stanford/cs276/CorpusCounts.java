@@ -0,0 +1,219 @@
+package edu.stanford.cs276;
+
+import edu.stanford.cs276.util.LongDoubleMap;
+import edu.stanford.cs276.util.Vocabulary;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import static edu.stanford.cs276.LanguageModel.bigramKey;
+import static edu.stanford.cs276.LanguageModel.firstId;
+import static edu.stanford.cs276.LanguageModel.secondId;
+
+/**
+ * Unigram and bigram counts of (a part of) the training corpus. While building a language model,
+ * each worker fills its own counts from the chunks of the corpus it reads, and the counts of all
+ * workers are merged afterwards.
+ */
+class CorpusCounts {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    // term ids are local to these counts
+    final Vocabulary terms = new Vocabulary();
+
+    // term id -> number of occurrences
+    int[] unigramCounts = new int[1024];
+
+    // total number of terms
+    long termCount = 0;
+
+    // bigramKey(id1, id2) -> number of occurrences; empty if bigrams are not counted
+    final LongDoubleMap bigramCounts = new LongDoubleMap();
+
+    private final boolean countBigrams;
+
+    CorpusCounts() {
+        this(true);
+    }
+
+    /**
+     * @param countBigrams false to count the terms only
+     */
+    CorpusCounts(boolean countBigrams) {
+        this.countBigrams = countBigrams;
+    }
+
+    /**
+     * Counts the terms and bigrams of a document (i.e. a line of the corpus).
+     */
+    void addDocument(String line) {
+        if (line.isEmpty()) {
+            return;
+        }
+
+        String[] words = WHITESPACE.split(line.trim());
+        int previousId = -1;
+
+        for (String w : words) {
+            int id = add(w, 1);
+            termCount++;
+
+            if (countBigrams && previousId != -1) {
+                bigramCounts.addTo(bigramKey(previousId, id), 1);
+            }
+            previousId = id;
+        }
+    }
+
+    /**
+     * Counts the documents of a chunk of a corpus file.
+     */
+    void addChunk(Chunk chunk) throws IOException {
+        readChunk(chunk, this::addDocument);
+    }
+
+    /**
+     * Counts the bigrams of the documents of a chunk, keyed by the ids that the passed vocabulary,
+     * which holds every term of the corpus, gives their terms.
+     */
+    static LongDoubleMap countBigrams(Chunk chunk, Vocabulary vocabulary) throws IOException {
+        LongDoubleMap counts = new LongDoubleMap();
+        readChunk(chunk, line -> {
+            if (line.isEmpty()) {
+                return;
+            }
+            int previousId = -1;
+            for (String w : WHITESPACE.split(line.trim())) {
+                int id = vocabulary.id(w);
+                if (previousId != -1) {
+                    counts.addTo(bigramKey(previousId, id), 1);
+                }
+                previousId = id;
+            }
+        });
+        return counts;
+    }
+
+    // passes every document (i.e. line) of a chunk to the consumer
+    static void readChunk(Chunk chunk, Consumer<String> documents) throws IOException {
+        byte[] bytes = new byte[(int) (chunk.end - chunk.start)];
+        try (FileChannel channel = FileChannel.open(chunk.file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining() && channel.read(buffer, chunk.start + buffer.position()) >= 0) {
+                // keep reading
+            }
+        }
+
+        // same charset as a FileReader
+        BufferedReader input = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes), Charset.defaultCharset()));
+        String line = null;
+        while ((line = input.readLine()) != null) {
+            documents.accept(line);
+        }
+    }
+
+    /**
+     * Adds count occurrences of the passed term.
+     *
+     * @return the id of the term in these counts
+     */
+    int add(String term, int count) {
+        int id = terms.add(term);
+        if (id == unigramCounts.length) {
+            unigramCounts = Arrays.copyOf(unigramCounts, id * 2);
+        }
+        unigramCounts[id] += count;
+        return id;
+    }
+
+    /**
+     * @return an estimate of the memory that these counts take, in bytes: per term, its chars, count,
+     * offset and slots, and per bigram, its key, count and slots
+     */
+    long bytes() {
+        return terms.size() * 48L + bigramCounts.size() * 32L;
+    }
+
+    /**
+     * Adds the passed counts to these ones.
+     */
+    void addAll(CorpusCounts other) {
+        int[] ids = new int[other.terms.size()];
+        for (int id = 0; id < ids.length; ++id) {
+            ids[id] = add(other.terms.word(id), other.unigramCounts[id]);
+        }
+        for (int i = 0; i < other.bigramCounts.size(); ++i) {
+            long key = other.bigramCounts.keyAt(i);
+            bigramCounts.addTo(bigramKey(ids[firstId(key)], ids[secondId(key)]), other.bigramCounts.valueAt(i));
+        }
+        termCount += other.termCount;
+    }
+
+    /**
+     * Splits a file into chunks of about chunkBytes bytes that start and end on line boundaries.
+     */
+    static List<Chunk> chunks(File file, long chunkBytes) throws IOException {
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            long position = chunkBytes;
+            while (position < length) {
+                // move the boundary to just after the next line feed
+                long boundary = -1;
+                while (boundary == -1 && position < length) {
+                    buffer.clear();
+                    int n = channel.read(buffer, position);
+                    for (int i = 0; i < n; ++i) {
+                        if (buffer.get(i) == '\n') {
+                            boundary = position + i + 1;
+                            break;
+                        }
+                    }
+                    position += Math.max(n, 0);
+                }
+                if (boundary == -1 || boundary >= length) {
+                    break;
+                }
+                boundaries.add(boundary);
+                position = boundary + chunkBytes;
+            }
+            boundaries.add(length);
+        }
+
+        List<Chunk> chunks = new ArrayList<>();
+        for (int i = 1; i < boundaries.size(); ++i) {
+            chunks.add(new Chunk(file, boundaries.get(i - 1), boundaries.get(i)));
+        }
+        return chunks;
+    }
+
+    /**
+     * The bytes of a file between two offsets, which are both at the start of a line.
+     */
+    static class Chunk {
+        final File file;
+        final long start;
+        final long end;
+
+        Chunk(File file, long start, long end) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package edu.stanford.cs276;
+
+import edu.stanford.cs276.util.Assert;
+import edu.stanford.cs276.util.Counter;
+import edu.stanford.cs276.util.Metrics;
+import edu.stanford.cs276.util.RunFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Corrections of whole queries, by channel model type and query, so that a query seen before is
+ * answered without generating candidates nor decoding. Queries are normalized first: the corrector
+ * splits them on whitespace, so queries that only differ by their spaces share an entry.
+ * <p>
+ * The cache is split into segments, each an access-ordered map with its own lock, so that threads
+ * correcting different queries rarely wait for each other. When a segment is full, the LRU policy
+ * evicts its least recently used entry, and the LFU policy the least often hit among its
+ * {@value #LFU_SAMPLE} least recently used ones, which keeps frequent queries without letting
+ * entries that were hit often long ago stay forever. Entries may also expire after a while.
+ * <p>
+ * The entries belong to the models they were computed with, identified by a fingerprint of the
+ * model files (see {@link LanguageModel#fingerprint()}): using the cache with other models, or
+ * loading a cache saved with other models, starts it over. Hits, misses, evictions and expirations
+ * are counted in {@link Metrics}.
+ */
+public class CorrectionCache {
+
+    public enum Policy { LRU, LFU }
+
+    // number of least recently used entries of a segment among which LFU evicts one
+    static final int LFU_SAMPLE = 8;
+
+    // written at the start of a saved cache, which is ignored when it has another version
+    private static final int FILE_VERSION = 1;
+    private static final int FILE_BUFFER_BYTES = 1 << 16;
+
+    private static final Counter HITS = Metrics.counter("corrections.cache.hits");
+    private static final Counter MISSES = Metrics.counter("corrections.cache.misses");
+    private static final Counter EVICTIONS = Metrics.counter("corrections.cache.evictions");
+    private static final Counter EXPIRATIONS = Metrics.counter("corrections.cache.expirations");
+
+    private final Segment[] segments;
+    private final Policy policy;
+    // 0 when entries never expire
+    private final long ttlMillis;
+
+    // fingerprint of the models of the entries
+    private volatile long fingerprint;
+
+    /**
+     * @param capacity the maximum number of entries
+     * @param ttlMillis the time after which an entry expires, 0 for never
+     */
+    public CorrectionCache(int capacity, Policy policy, long ttlMillis) {
+        Assert.check(capacity > 0, "The capacity of the correction cache must be positive: " + capacity);
+        int count = Math.min(Config.CORRECTION_CACHE_SEGMENTS, Integer.highestOneBit(capacity));
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; ++i) {
+            // the first segments take the remainder
+            segments[i] = new Segment(capacity / count + (i < capacity % count ? 1 : 0));
+        }
+        this.policy = policy;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @param fingerprint the fingerprint of the models the correction would be computed with
+     * @param channel the probability type of the channel model, "uniform" or "empirical"
+     * @return the cached correction of the query, or null
+     */
+    public String get(long fingerprint, String channel, String query) {
+        use(fingerprint);
+        String key = key(channel, query);
+        Segment segment = segment(key);
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.entries.get(key);
+            if (entry != null && expired(entry, System.currentTimeMillis())) {
+                segment.entries.remove(key);
+                EXPIRATIONS.increment();
+                entry = null;
+            } else if (entry != null) {
+                entry.hits++;
+            }
+        }
+        (entry == null ? MISSES : HITS).increment();
+        return entry == null ? null : entry.correction;
+    }
+
+    /**
+     * Caches the correction of a query, computed with the models of the passed fingerprint. If the
+     * query is already cached, by another thread that corrected it at the same time, its hits are kept.
+     */
+    public void put(long fingerprint, String channel, String query, String correction) {
+        use(fingerprint);
+        String key = key(channel, query);
+        Segment segment = segment(key);
+        synchronized (segment) {
+            Entry previous = segment.entries.get(key);
+            add(segment, key, new Entry(correction, System.currentTimeMillis(), previous == null ? 0 : previous.hits));
+        }
+    }
+
+    /**
+     * @return the number of entries, including the expired ones that were not looked up since
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.entries.clear();
+            }
+        }
+    }
+
+    /**
+     * @return the number of entries and the hit rate, since the metrics were last reset
+     */
+    public String stats() {
+        long hits = HITS.getCount();
+        long lookups = hits + MISSES.getCount();
+        return "entries: " + size() + ", hits: " + hits + "/" + lookups
+                + (lookups > 0 ? String.format(" (%.1f%%)", hits * 100.0 / lookups) : "")
+                + ", evictions: " + EVICTIONS.getCount() + ", expirations: " + EXPIRATIONS.getCount();
+    }
+
+    /**
+     * Saves the entries to the passed file, with the fingerprint of their models. The file is
+     * written next to its destination and moved into place once complete.
+     */
+    public void save(String path) throws IOException {
+        Path target = Paths.get(path).toAbsolutePath();
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (RunFile.Writer out = new RunFile.Writer(tmp, FILE_BUFFER_BYTES)) {
+            out.writeInt(FILE_VERSION);
+            out.writeLong(fingerprint);
+            for (Segment segment : segments) {
+                synchronized (segment) {
+                    // least recently used first, so that loading them in order restores their order
+                    for (Map.Entry<String, Entry> e : segment.entries.entrySet()) {
+                        out.writeString(e.getKey());
+                        out.writeString(e.getValue().correction);
+                        out.writeInt(e.getValue().hits);
+                        out.writeLong(e.getValue().created);
+                    }
+                }
+            }
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Adds the entries saved to the passed file, unless it is missing, has another version or was
+     * saved with other models. Expired entries are skipped.
+     *
+     * @param fingerprint the fingerprint of the models the cache will be used with
+     * @return the number of entries added
+     */
+    public int load(String path, long fingerprint) throws IOException {
+        if (!new File(path).isFile()) {
+            return 0;
+        }
+        use(fingerprint);
+        int count = 0;
+        try (RunFile.Reader in = new RunFile.Reader(Paths.get(path), FILE_BUFFER_BYTES)) {
+            if (!in.hasMore() || in.readInt() != FILE_VERSION || in.readLong() != fingerprint) {
+                return 0;
+            }
+            long now = System.currentTimeMillis();
+            while (in.hasMore()) {
+                String key = in.readString();
+                String correction = in.readString();
+                int hits = in.readInt();
+                Entry entry = new Entry(correction, in.readLong(), hits);
+                if (expired(entry, now)) {
+                    continue;
+                }
+                Segment segment = segment(key);
+                synchronized (segment) {
+                    add(segment, key, entry);
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // the key of a query: the channel type, then the query words separated by single spaces
+    static String key(String channel, String query) {
+        StringBuilder sb = new StringBuilder(channel.length() + 1 + query.length());
+        sb.append(channel).append('\t');
+        boolean space = false;
+        for (int i = 0; i < query.length(); ++i) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = true;
+            } else {
+                if (space && sb.length() > channel.length() + 1) {
+                    sb.append(' ');
+                }
+                space = false;
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    // starts the cache over if its entries belong to other models
+    private void use(long fingerprint) {
+        if (fingerprint != this.fingerprint) {
+            synchronized (this) {
+                if (fingerprint != this.fingerprint) {
+                    clear();
+                    this.fingerprint = fingerprint;
+                }
+            }
+        }
+    }
+
+    private Segment segment(String key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+    }
+
+    private boolean expired(Entry entry, long now) {
+        return ttlMillis > 0 && now - entry.created >= ttlMillis;
+    }
+
+    // adds an entry to a segment, evicting another one if the segment is full. The caller holds its lock
+    private void add(Segment segment, String key, Entry entry) {
+        segment.entries.put(key, entry);
+        if (segment.entries.size() <= segment.capacity) {
+            return;
+        }
+        // the entries are iterated from the least recently used, and the added one is the last
+        Iterator<Map.Entry<String, Entry>> it = segment.entries.entrySet().iterator();
+        Map.Entry<String, Entry> eldest = it.next();
+        String victim = eldest.getKey();
+        if (policy == Policy.LFU) {
+            int fewest = eldest.getValue().hits;
+            for (int i = 1; i < LFU_SAMPLE && it.hasNext(); ++i) {
+                Map.Entry<String, Entry> e = it.next();
+                if (e.getValue().hits < fewest && !e.getKey().equals(key)) {
+                    victim = e.getKey();
+                    fewest = e.getValue().hits;
+                }
+            }
+        }
+        segment.entries.remove(victim);
+        EVICTIONS.increment();
+    }
+
+    private static class Entry {
+        final String correction;
+        // milliseconds since the epoch when the correction was computed
+        final long created;
+        int hits;
+
+        Entry(String correction, long created, int hits) {
+            this.correction = correction;
+            this.hits = hits;
+            this.created = created;
+        }
+    }
+
+    private static class Segment {
+        // in access order, from the least recently used
+        final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        final int capacity;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+        }
+    }
+
+    /**
+     * The cache options of the command line tools:
+     * --cache &lt;entries&gt; --cache-policy &lt;lru | lfu&gt; --cache-ttl &lt;seconds&gt; --cache-file &lt;file&gt;.
+     * Any of them turns the cache on, with {@link Config#CORRECTION_CACHE_SIZE} entries by default.
+     */
+    public static class Options {
+
+        public static final String USAGE = "[--cache <entries>] [--cache-policy <lru | lfu>] [--cache-ttl <seconds>] [--cache-file <file>]";
+
+        boolean enabled;
+        int capacity = Config.CORRECTION_CACHE_SIZE;
+        Policy policy = Policy.LRU;
+        long ttlSeconds;
+        String file;
+
+        /**
+         * Parses the cache option at args[i], if there is one.
+         *
+         * @return the number of arguments the option took, 0 if args[i] is not a cache option
+         */
+        public int parse(String[] args, int i) {
+            if (i + 1 >= args.length) {
+                return 0;
+            }
+            if ("--cache".equals(args[i])) {
+                capacity = Integer.parseInt(args[i + 1]);
+            } else if ("--cache-policy".equals(args[i])) {
+                policy = Policy.valueOf(args[i + 1].toUpperCase());
+            } else if ("--cache-ttl".equals(args[i])) {
+                ttlSeconds = Long.parseLong(args[i + 1]);
+            } else if ("--cache-file".equals(args[i])) {
+                file = args[i + 1];
+            } else {
+                return 0;
+            }
+            enabled = true;
+            return 2;
+        }
+
+        /**
+         * Creates the cache of the corrector, and loads the entries saved to the cache file for its models.
+         *
+         * @return the cache, or null if no cache option was passed
+         */
+        public CorrectionCache create(Corrector corrector) throws IOException {
+            if (!enabled) {
+                return null;
+            }
+            CorrectionCache cache = new CorrectionCache(capacity, policy, ttlSeconds * 1000);
+            if (file != null) {
+                int loaded = cache.load(file, corrector.fingerprint());
+                System.err.println("Loaded " + loaded + " cached corrections from " + file);
+            }
+            corrector.setCache(cache);
+            return cache;
+        }
+
+        /**
+         * Saves the cache to the cache file, if there is one.
+         */
+        public void save(CorrectionCache cache) throws IOException {
+            if (cache != null && file != null) {
+                cache.save(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package edu.stanford.cs276;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.stanford.cs276.util.Metrics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves corrections over HTTP, with the models loaded once and kept in memory.
+ * <p>
+ * GET /correct?q=&lt;query&gt; returns the correction of one query. POST /correct with one query per
+ * line in the body returns their corrections, one per line, in the same order. Corrections are the
+ * ones RunCorrector writes for the same queries. Requests are handled concurrently, by a pool of
+ * threads that share the models.
+ * <p>
+ * The latencies and counters of the corrector can be read over JMX (see {@link Metrics}), and with
+ * --metrics &lt;seconds&gt;, they are also dumped to stderr periodically.
+ * <p>
+ * With the cache options (see {@link CorrectionCache.Options}), the corrections of the queries seen
+ * before are served from a cache, which may be saved when the server stops and loaded when it starts.
+ */
+public class CorrectionServer {
+
+    private static final int DEFAULT_PORT = 8276;
+
+    private final Corrector corrector;
+    private final HttpServer server;
+
+    public CorrectionServer(Corrector corrector, int port, int threads) throws IOException {
+        this.corrector = corrector;
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext("/correct", this::handle);
+        server.setExecutor(Executors.newFixedThreadPool(threads));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = DEFAULT_PORT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long metricsSeconds = 0;
+        CorrectionCache.Options cacheOptions = new CorrectionCache.Options();
+        int consumed = 0;
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; ++i) {
+            if ("--port".equals(args[i]) && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("--metrics".equals(args[i]) && i + 1 < args.length) {
+                metricsSeconds = Long.parseLong(args[++i]);
+            } else if ((consumed = cacheOptions.parse(args, i)) > 0) {
+                i += consumed - 1;
+            } else {
+                positional.add(args[i]);
+            }
+        }
+
+        if (positional.size() != 1) {
+            System.err.println(
+                    "Invalid arguments.  Argument count must be 1 \n"
+                            + "./correctionserver [--port <port>] [--threads <N>] [--metrics <seconds>] " + CorrectionCache.Options.USAGE + " <uniform | empirical> \n"
+                            + "SAMPLE: ./correctionserver empirical \n"
+                            + "SAMPLE: ./correctionserver --port 8080 --threads 8 empirical \n"
+                            + "SAMPLE: ./correctionserver --cache 100000 --cache-policy lfu --cache-file corrections.cache empirical \n");
+            return;
+        }
+
+        // Load models from disk
+        LanguageModel languageModel = LanguageModel.load();
+        NoisyChannelModel nsm = NoisyChannelModel.load();
+        nsm.setProbabilityType(positional.get(0));
+
+        Corrector corrector = new Corrector(languageModel, nsm);
+        CorrectionCache cache = cacheOptions.create(corrector);
+        if (cache != null) {
+            // the server runs until it is killed, so the cache is saved on the way out
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    cacheOptions.save(cache);
+                } catch (IOException e) {
+                    System.err.println("Unable to save the correction cache: " + e);
+                }
+            }, "save-correction-cache"));
+        }
+
+        new CorrectionServer(corrector, port, threads).start();
+        if (metricsSeconds > 0) {
+            Metrics.dumpEvery(metricsSeconds * 1000, System.err);
+        }
+        System.out.println("Listening on http://localhost:" + port + "/correct");
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            List<String> queries = new ArrayList<>();
+            if ("GET".equals(method)) {
+                String q = parameter(exchange.getRequestURI().getRawQuery(), "q");
+                if (q == null) {
+                    respond(exchange, 400, "missing parameter: q\n");
+                    return;
+                }
+                queries.add(q);
+            } else if ("POST".equals(method)) {
+                BufferedReader body = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+                String line = null;
+                while ((line = body.readLine()) != null) {
+                    queries.add(line);
+                }
+            } else {
+                respond(exchange, 405, "use GET or POST\n");
+                return;
+            }
+
+            StringBuilder corrections = new StringBuilder();
+            for (String query : queries) {
+                corrections.append(corrector.correct(query.trim()).correctedQuery).append('\n');
+            }
+            respond(exchange, 200, corrections.toString());
+        } catch (Exception e) {
+            respond(exchange, 500, e + "\n");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // value of a parameter of a URL query string, or null if it is not there
+    private static String parameter(String rawQuery, String name) {
+        if (rawQuery == null) {
+            return null;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq == -1 ? pair : pair.substring(0, eq);
+            if (name.equals(URLDecoder.decode(key, StandardCharsets.UTF_8))) {
+                return eq == -1 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package edu.stanford.cs276;
+
+import edu.stanford.cs276.util.Counter;
+import edu.stanford.cs276.util.Histogram;
+import edu.stanford.cs276.util.Metrics;
+
+import java.util.List;
+
+/**
+ * Corrects queries with a language model and a noisy channel model: generates the candidates of
+ * each query word, then finds the most likely correction with an {@link AStarDecoder}. The models
+ * are only read, so a corrector can be shared by several threads.
+ * <p>
+ * A corrector may answer the queries it has seen before from a {@link CorrectionCache}.
+ */
+public class Corrector {
+
+    private static final Histogram LATENCY = Metrics.latency("correct");
+    private static final Histogram DECODE_LATENCY = Metrics.latency("decode");
+    private static final Counter QUERIES = Metrics.counter("queries");
+
+    private final LanguageModel languageModel;
+    private final NoisyChannelModel nsm;
+    private final CandidateGenerator cg;
+    private final AStarDecoder decoder;
+
+    // channel type and models fingerprint, which key the cached corrections
+    private final String channel;
+    private final long fingerprint;
+    private volatile CorrectionCache cache;
+
+    /**
+     * @param nsm a channel model whose probability type is already set
+     */
+    public Corrector(LanguageModel languageModel, NoisyChannelModel nsm) throws Exception {
+        this.languageModel = languageModel;
+        this.nsm = nsm;
+        this.cg = CandidateGenerator.get();
+        this.decoder = new AStarDecoder(languageModel, nsm.ecm_);
+        this.channel = nsm.probabilityType();
+        this.fingerprint = 31 * languageModel.fingerprint() + nsm.fingerprint();
+    }
+
+    /**
+     * Caches the corrections of the queries in the passed cache, which may be shared with other
+     * correctors, or stops caching them if it is null.
+     */
+    public void setCache(CorrectionCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @return a fingerprint of the models of the corrector, which changes when they are rebuilt
+     */
+    public long fingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Finds the most likely correction of the passed query, which must already be trimmed.
+     */
+    public Correction correct(String query) throws Exception {
+        long start = System.nanoTime();
+        QUERIES.increment();
+        CorrectionCache cache = this.cache;
+        if (cache != null) {
+            String cached = cache.get(fingerprint, channel, query);
+            if (cached != null) {
+                LATENCY.recordSince(start);
+                return new Correction(query, null, cached, 0);
+            }
+        }
+        List<List<Candidate>> candidates = cg.getCandidates(nsm, languageModel, query);
+
+        // score corrections using the language model and the noisy channel model
+        // score = P(Q|R) = P(R|Q) x P(Q) = (noisy channel probability) x (language model probability)
+        long decodeStart = System.nanoTime();
+        AStarDecoder.Result best = decoder.decode(query.split("\\s+"), candidates);
+        DECODE_LATENCY.recordSince(decodeStart);
+        if (cache != null) {
+            cache.put(fingerprint, channel, query, best.correction);
+        }
+        LATENCY.recordSince(start);
+
+        return new Correction(query, candidates, best.correction, best.expansions);
+    }
+
+    /**
+     * @return the candidates of the words of the query of the passed correction, generated again
+     * if the correction came from the cache
+     */
+    public List<List<Candidate>> candidates(Correction correction) throws Exception {
+        return correction.candidates != null ? correction.candidates : cg.getCandidates(nsm, languageModel, correction.query);
+    }
+
+    /**
+     * A query, the candidates of its words, its best correction, and the number of hypotheses the
+     * decoder expanded to find it. A correction found in the cache has no candidates (see
+     * {@link #candidates(Correction)}) and no expansions.
+     */
+    public static class Correction {
+        public final String query;
+        public final List<List<Candidate>> candidates;
+        public final String correctedQuery;
+        public final int expansions;
+
+        Correction(String query, List<List<Candidate>> candidates, String correctedQuery, int expansions) {
+            this.query = query;
+            this.candidates = candidates;
+            this.correctedQuery = correctedQuery;
+            this.expansions = expansions;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package edu.stanford.cs276;
+
+import edu.stanford.cs276.util.ModelFile;
+import edu.stanford.cs276.util.Vocabulary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Symmetric-delete index over the vocabulary of a {@link LanguageModel}: it maps every string that
+ * can be obtained by deleting up to {@link #MAX_DELETES} characters from a term to the ids of the
+ * terms that produce it. Two strings within edit distance 2 of each other always share such a
+ * deletion, so the terms close to a word are found by looking up the deletions of the word alone,
+ * instead of probing the dictionary with every string within distance 2 of it.
+ * <p>
+ * Looking a word up costs a hash probe per deletion of the word, but the index holds every deletion
+ * of every term, several times the size of the {@link Lexicon} trie. The index is built by
+ * BuildModels with --index deletes and saved next to the models (see {@link TermIndex}).
+ */
+public class DeletionIndex implements TermIndex {
+
+    static final String MODEL_KIND = "deletionIndex";
+    static final int MAX_DELETES = 2;
+
+    // every deletion of every term
+    private Vocabulary deletes;
+
+    // deletion id -> offset of its term ids in postings; offsets[deletes.size()] is the end of the last list
+    private ByteBuffer offsetBytes;
+    private IntBuffer offsets;
+
+    // term ids, grouped by deletion and sorted within each group
+    private ByteBuffer postingBytes;
+    private IntBuffer postings;
+
+    // identifies the language model vocabulary that the term ids refer to
+    private long fingerprint;
+
+    // the vocabulary of that language model
+    private Vocabulary vocabulary;
+
+    private DeletionIndex() {
+    }
+
+    /**
+     * Builds the index over the vocabulary of the passed language model.
+     */
+    public static DeletionIndex create(LanguageModel lm) {
+        System.out.println("Constructing deletion index...");
+        Vocabulary terms = new Vocabulary();
+
+        // (deletion id, term id) pairs, in term id order
+        int[] pairs = new int[1024];
+        int pairCount = 0;
+
+        Set<String> termDeletes = new HashSet<>();
+        for (int id = 0; id < lm.vocabulary.size(); ++id) {
+            termDeletes.clear();
+            addDeletes(lm.vocabulary.word(id), MAX_DELETES, termDeletes);
+            for (String d : termDeletes) {
+                if (pairCount + 2 > pairs.length) {
+                    pairs = Arrays.copyOf(pairs, pairs.length * 2);
+                }
+                pairs[pairCount++] = terms.add(d);
+                pairs[pairCount++] = id;
+            }
+        }
+
+        int[] newIds = new int[terms.size()];
+        DeletionIndex index = new DeletionIndex();
+        index.deletes = terms.sorted(newIds);
+
+        // counting sort of the pairs by deletion id
+        index.offsetBytes = ModelFile.allocate((terms.size() + 1) * 4);
+        index.offsets = index.offsetBytes.asIntBuffer();
+        for (int i = 0; i < pairCount; i += 2) {
+            int d = newIds[pairs[i]];
+            index.offsets.put(d + 1, index.offsets.get(d + 1) + 1);
+        }
+        for (int d = 0; d < terms.size(); ++d) {
+            index.offsets.put(d + 1, index.offsets.get(d + 1) + index.offsets.get(d));
+        }
+        int[] next = new int[terms.size()];
+        index.postingBytes = ModelFile.allocate(pairCount / 2 * 4);
+        index.postings = index.postingBytes.asIntBuffer();
+        for (int i = 0; i < pairCount; i += 2) {
+            int d = newIds[pairs[i]];
+            index.postings.put(index.offsets.get(d) + next[d]++, pairs[i + 1]);
+        }
+
+        index.fingerprint = lm.vocabularyChecksum();
+        index.vocabulary = lm.vocabulary;
+        System.out.println("Done.");
+        return index;
+    }
+
+    /**
+     * Reads an index saved by {@link #save()}, provided that it was built for the passed language model
+     * (see {@link TermIndex#load(LanguageModel)}).
+     *
+     * @return the index, or null if it belongs to another language model
+     */
+    static DeletionIndex read(ModelFile file, LanguageModel lm) throws IOException {
+        DeletionIndex index = new DeletionIndex();
+        index.deletes = Vocabulary.read(file, "deletes");
+        index.offsetBytes = file.section("postings.offsets");
+        index.offsets = index.offsetBytes.asIntBuffer();
+        index.postingBytes = file.section("postings.terms");
+        index.postings = index.postingBytes.asIntBuffer();
+        index.fingerprint = file.section("fingerprint").asLongBuffer().get(0);
+        index.vocabulary = lm.vocabulary;
+        return index.fingerprint == lm.vocabularyChecksum() ? index : null;
+    }
+
+    @Override
+    public void save() throws IOException {
+        ModelFile.Writer writer = new ModelFile.Writer(MODEL_KIND);
+        deletes.write(writer, "deletes");
+        writer.add("postings.offsets", offsetBytes.duplicate().position(0).limit((deletes.size() + 1) * 4));
+        writer.add("postings.terms", postingBytes.duplicate().position(0));
+        ByteBuffer fingerprintBytes = ModelFile.allocate(8);
+        LongBuffer fingerprintView = fingerprintBytes.asLongBuffer();
+        fingerprintView.put(0, fingerprint);
+        writer.add("fingerprint", fingerprintBytes);
+        writer.write(Config.candidateGenFile);
+    }
+
+    @Override
+    public int[] lookup(String w, int maxDistance) {
+        Set<String> wDeletes = new HashSet<>();
+        addDeletes(w, maxDistance, wDeletes);
+
+        int[] ids = new int[16];
+        int count = 0;
+        for (String d : wDeletes) {
+            int deleteId = deletes.id(d);
+            if (deleteId == -1) {
+                continue;
+            }
+            for (int i = offsets.get(deleteId); i < offsets.get(deleteId + 1); ++i) {
+                int id = postings.get(i);
+                if (Math.abs(vocabulary.length(id) - w.length()) > maxDistance) {
+                    continue;
+                }
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, count * 2);
+                }
+                ids[count++] = id;
+            }
+        }
+
+        Arrays.sort(ids, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; ++i) {
+            if (distinct == 0 || ids[i] != ids[distinct - 1]) {
+                ids[distinct++] = ids[i];
+            }
+        }
+        return Arrays.copyOf(ids, distinct);
+    }
+
+    // adds w and every string obtained by deleting up to n characters of w. All the ways of reaching
+    // a deletion delete the same number of characters, so a deletion that was already seen can be skipped
+    private static void addDeletes(String w, int n, Set<String> deletes) {
+        if (!deletes.add(w) || n == 0) {
+            return;
+        }
+        for (int i = 0; i < w.length(); ++i) {
+            addDeletes(w.substring(0, i) + w.substring(i + 1), n - 1, deletes);
+        }
+    }
+}
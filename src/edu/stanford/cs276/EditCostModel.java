@@ -20,4 +20,12 @@ public interface EditCostModel extends Serializable {
      * @return
      */
     public double editProbability(String original, String R, int distance);
+
+    /**
+     * The natural log of {@link #editProbability(String, String, int)}, which is what the scoring
+     * code adds up. Models that can compute it directly should override it.
+     */
+    default double logEditProbability(String original, String R, int distance) {
+        return Math.log(editProbability(original, R, distance));
+    }
 }
@@ -0,0 +1,147 @@
+package edu.stanford.cs276;
+
+import static edu.stanford.cs276.CandidateGenerator.alphabet;
+
+/**
+ * Decides whether one string can be turned into another with the edits that
+ * {@link CandidateGenerator} generates, without generating them. Those edits are: deleting any
+ * character, swapping two adjacent characters, inserting a character of the {@code alphabet}
+ * before any existing character (but not after the last one), and replacing any character with a
+ * character of the {@code alphabet}.
+ */
+final class Edits {
+
+    private static final boolean[] IN_ALPHABET = new boolean[128];
+
+    static {
+        for (Character c : alphabet) {
+            IN_ALPHABET[c] = true;
+        }
+    }
+
+    private Edits() {
+    }
+
+    static boolean inAlphabet(char c) {
+        return c < IN_ALPHABET.length && IN_ALPHABET[c];
+    }
+
+    /**
+     * @return true if {@code to} is one edit away from {@code from}, and different from it
+     */
+    static boolean isOneEdit(String from, String to) {
+        return isOneEdit(from.toCharArray(), from.length(), to.toCharArray(), to.length());
+    }
+
+    /**
+     * @return true if {@code to} is two edits away from {@code from}, and different from it. This
+     * assumes that no dictionary word is one edit away from {@code from}, which is the only case in
+     * which the candidate generator goes to distance 2.
+     */
+    static boolean isTwoEdits(String from, String to) {
+        if (from.equals(to) || Math.abs(from.length() - to.length()) > 2) {
+            return false;
+        }
+        char[] a = from.toCharArray();
+        char[] b = to.toCharArray();
+
+        // an intermediate string that inserts or substitutes a character which does not appear in
+        // the target has to remove it again, which would make the target one edit away (or equal
+        // to the source), so only the characters of the target are worth trying
+        char[] letters = new char[b.length];
+        int letterCount = 0;
+        for (char c : b) {
+            if (inAlphabet(c) && indexOf(letters, letterCount, c) == -1) {
+                letters[letterCount++] = c;
+            }
+        }
+
+        char[] s = new char[a.length + 1];
+        for (int m = 0; m < a.length; ++m) {
+            // delete
+            System.arraycopy(a, 0, s, 0, m);
+            System.arraycopy(a, m + 1, s, m, a.length - m - 1);
+            if (isOneEdit(s, a.length - 1, b, b.length)) {
+                return true;
+            }
+
+            // transpose
+            if (m != 0 && a[m - 1] != a[m]) {
+                System.arraycopy(a, 0, s, 0, a.length);
+                s[m - 1] = a[m];
+                s[m] = a[m - 1];
+                if (isOneEdit(s, a.length, b, b.length)) {
+                    return true;
+                }
+            }
+
+            for (int j = 0; j < letterCount; ++j) {
+                // insert
+                System.arraycopy(a, 0, s, 0, m);
+                s[m] = letters[j];
+                System.arraycopy(a, m, s, m + 1, a.length - m);
+                if (isOneEdit(s, a.length + 1, b, b.length)) {
+                    return true;
+                }
+
+                // substitute
+                if (letters[j] != a[m]) {
+                    System.arraycopy(a, 0, s, 0, a.length);
+                    s[m] = letters[j];
+                    if (isOneEdit(s, a.length, b, b.length)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isOneEdit(char[] a, int aLength, char[] b, int bLength) {
+        int shorter = Math.min(aLength, bLength);
+        int prefix = 0;
+        while (prefix < shorter && a[prefix] == b[prefix]) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < shorter && a[aLength - 1 - suffix] == b[bLength - 1 - suffix]) {
+            suffix++;
+        }
+
+        if (bLength == aLength + 1) {
+            // b inserts b[m] before a[m], for some m < aLength
+            for (int m = Math.max(0, aLength - suffix); m <= Math.min(prefix, aLength - 1); ++m) {
+                if (inAlphabet(b[m])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        if (bLength == aLength - 1) {
+            // b deletes a[m], for some m
+            return Math.max(0, bLength - suffix) <= Math.min(prefix, aLength - 1);
+        }
+
+        if (bLength != aLength || prefix == aLength) {
+            return false;
+        }
+
+        int m = prefix;
+        if (suffix >= aLength - m - 1) {
+            // b substitutes a[m]
+            return inAlphabet(b[m]);
+        }
+        // b swaps a[m] and a[m + 1]
+        return m + 1 < aLength && a[m] == b[m + 1] && a[m + 1] == b[m] && suffix >= aLength - m - 2;
+    }
+
+    private static int indexOf(char[] chars, int length, char c) {
+        for (int i = 0; i < length; ++i) {
+            if (chars[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
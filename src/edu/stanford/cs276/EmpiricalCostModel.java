@@ -2,202 +2,356 @@ package edu.stanford.cs276;
 
 import edu.stanford.cs276.util.Assert;
 import edu.stanford.cs276.util.Logger;
+import edu.stanford.cs276.util.ModelFile;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Scanner;
 
+import static edu.stanford.cs276.CandidateGenerator.alphabet;
 import static edu.stanford.cs276.Config.PIPE;
 
 /**
  * Implement {@link EditCostModel} interface. Use the query corpus to learn a model
  * of errors that occur in our dataset of queries, and use this to compute P(R|Q).
+ * <p>
+ * The errors are counted in four confusion matrices, one per kind of edit, indexed by character
+ * (see {@link #index(char)}), the way Kernighan, Church and Gale do:
+ * <pre>
+ *   del[x][y]   = times "xy" was typed as "x"
+ *   ins[x][y]   = times "x" was typed as "xy"
+ *   sub[x][y]   = times "y" was typed as "x"
+ *   trans[x][y] = times "xy" was typed as "yx"
+ * </pre>
+ * where x is the start of the word for edits at its first character. Each count is divided by the
+ * count of the characters it applies to in the clean queries, with add-one smoothing, and the log
+ * of the result is precomputed, so the channel score of a candidate costs a few array reads.
  */
 public class EmpiricalCostModel implements EditCostModel {
 
     private static final long serialVersionUID = 1L;
 
-    // stores the number of occurrences of a given change.
-    // E.g.: If 'e' was typed instead 'i' 123 times, then this map will contain the key "e|i" mapped to "123"
-    Map<String, Integer> errorCounts = new HashMap<>();
+    // kinds of edits, in the order of their matrices in the tables
+    static final int DELETION = 0;
+    static final int INSERTION = 1;
+    static final int SUBSTITUTION = 2;
+    static final int TRANSPOSITION = 3;
 
-    // stores counts for unigrams and bigrams
-    Map<String, Integer> kgramCounts = new HashMap<>();
+    // character indexes: the alphabet, then the start of the word, then any other character
+    static final int START = alphabet.length;
+    static final int OTHER = alphabet.length + 1;
+    static final int CHARS = alphabet.length + 2;
 
-    // stores empirical probabilities that are discovered in "edits1.txt"
-    // E.g.: if P(e|i) = probability of typing 'e' instead of 'i' was equal to 0.1234
-    //       then this map will contain the key "e|i" mapped to the value "0.1234"
-    // Map<String, Double> empiricalProbabilities = new HashMap<>();
+    private static final int[] INDEX = new int[128];
+
+    static {
+        Arrays.fill(INDEX, OTHER);
+        for (int i = 0; i < alphabet.length; ++i) {
+            INDEX[alphabet[i]] = i;
+        }
+    }
+
+    private static final double LOG_ZERO_EDIT_PROBABILITY = Math.log(ZERO_EDIT_PROBABILITY);
+
+    // edits of each kind: editCounts[kind * CHARS * CHARS + x * CHARS + y]
+    final int[] editCounts = new int[4 * CHARS * CHARS];
+
+    // characters, and pairs of consecutive characters, of the clean queries (the first one of
+    // each query follows START)
+    final int[] charCounts = new int[CHARS];
+    final int[] charBigramCounts = new int[CHARS * CHARS];
+
+    // log P(edit), laid out as editCounts
+    private final double[] logProbabilities = new double[4 * CHARS * CHARS];
+
+    // edits found between two strings, per thread
+    private static final ThreadLocal<Alignment> ALIGNMENT = ThreadLocal.withInitial(Alignment::new);
 
-    // You need to add code for this interface method to calculate the proper empirical cost.
     @Override
     public double editProbability(String original, String R, int distance) {
+        return Math.exp(logEditProbability(original, R, distance));
+    }
 
-        /*
-         * TODO: Your code here
-         */
+    /**
+     * The probability of the edits that turn R into original, the query that was typed. Distances
+     * are worked out from the strings themselves, so the passed one is not used.
+     */
+    @Override
+    public double logEditProbability(String original, String R, int distance) {
+        if (original.equals(R)) {
+            return LOG_ZERO_EDIT_PROBABILITY;
+        }
+        Alignment alignment = ALIGNMENT.get();
+        int count = alignment.edits(original, R);
+        double p = 0;
+        for (int i = 0; i < count; ++i) {
+            p += logProbabilities[alignment.edits[i]];
+        }
+        return p;
+    }
 
-        // determine what has changed from the original string to the new one
-        String change = determineChange(original, R);
+    private EmpiricalCostModel() {
+    }
 
-        double p = 0;
-        //System.out.println("af" + p);
+    /**
+     * Reads a model previously written with {@link #write(ModelFile.Writer)}.
+     */
+    static EmpiricalCostModel read(ModelFile file) throws IOException {
+        CharBuffer chars = file.section("alphabet").asCharBuffer();
+        Assert.check(chars.limit() == alphabet.length, "The noisy channel model was built for another alphabet");
+        for (int i = 0; i < alphabet.length; ++i) {
+            Assert.check(chars.get(i) == alphabet[i], "The noisy channel model was built for another alphabet");
+        }
 
-        return 0.5;
+        EmpiricalCostModel model = new EmpiricalCostModel();
+        file.section("edits.counts").asIntBuffer().get(model.editCounts);
+        file.section("chars.counts").asIntBuffer().get(model.charCounts);
+        file.section("chars.bigrams").asIntBuffer().get(model.charBigramCounts);
+        file.section("edits.logp").asDoubleBuffer().get(model.logProbabilities);
+        return model;
+    }
+
+    void write(ModelFile.Writer writer) {
+        ByteBuffer chars = ModelFile.allocate(alphabet.length * 2);
+        for (Character c : alphabet) {
+            chars.putChar(c);
+        }
+        writer.add("alphabet", chars.flip());
+        writer.add("edits.counts", ints(editCounts));
+        writer.add("chars.counts", ints(charCounts));
+        writer.add("chars.bigrams", ints(charBigramCounts));
+        ByteBuffer logp = ModelFile.allocate(logProbabilities.length * 8);
+        DoubleBuffer view = logp.asDoubleBuffer();
+        view.put(logProbabilities);
+        writer.add("edits.logp", logp);
+    }
+
+    private static ByteBuffer ints(int[] values) {
+        ByteBuffer bytes = ModelFile.allocate(values.length * 4);
+        IntBuffer view = bytes.asIntBuffer();
+        view.put(values);
+        return bytes;
     }
 
     public EmpiricalCostModel(String editsFile) throws IOException {
         BufferedReader input = new BufferedReader(new FileReader(editsFile));
         System.out.println("Constructing edit distance map...");
+        Alignment alignment = new Alignment();
         String line = null;
         while ((line = input.readLine()) != null) {
             Scanner lineSc = new Scanner(line);
             lineSc.useDelimiter("\t");
             String noisy = lineSc.next();
             String clean = lineSc.next();
-          /*
-           * TODO: Your code here
-           */
-
-          String change = determineChange(noisy, clean);
-
-            char[] cleanChars = clean.toCharArray();
-
-            updateKGramCounts(String.valueOf(cleanChars[0]));
 
-            for (int i=1; i<cleanChars.length; ++i) {
-                String unigram1 = String.valueOf(cleanChars[i-1]);
-                String unigram2 = String.valueOf(cleanChars[i]);
-
-                // update counter
-                updateKGramCounts(unigram1);
-                updateKGramCounts(unigram1 + unigram2);
+            // count the edits that turned the clean query into the noisy one
+            if (!noisy.equals(clean)) {
+                int count = alignment.edits(noisy, clean);
+                for (int i = 0; i < count; ++i) {
+                    editCounts[alignment.edits[i]]++;
+                }
             }
 
+            // and the characters they could have applied to
+            int previous = START;
+            charCounts[START]++;
+            for (int i = 0; i < clean.length(); ++i) {
+                int c = index(clean.charAt(i));
+                charCounts[c]++;
+                charBigramCounts[previous * CHARS + c]++;
+                previous = c;
+            }
         }
 
         input.close();
+        computeLogProbabilities();
         System.out.println("Done.");
 
-        Logger.print(true, "size of k-grams " + kgramCounts.size());
+        Logger.print(true, "edits counted: " + Arrays.stream(editCounts).sum());
     }
 
-    private double  getEmpiricalProbability(String w1w2) {
-
-        Assert.check(w1w2.contains(PIPE), "Pipe character not found - Incorrect format");
-
-        String[] pair = w1w2.split(PIPE);
-
-        Assert.check(pair.length == 2, "Incorrect format found - expected: noisyChars|cleanChar, but got: " + w1w2);
-
-        double w1w2Count = errorCounts.get(w1w2);
-
-        double w1Count = kgramCounts.get(pair[1]);
-
-        double p = (w1w2Count + 1) / (w1Count + kgramCounts.size());
-
-        return p;
-
-    }
-    
-    // Update empirical term and increase count
-    private void storeEmpiricalCount(String EmpericalNoise){
-        int count = 0;
-        if (errorCounts.containsKey(EmpericalNoise)) {
-            count = errorCounts.get(EmpericalNoise);
+    /**
+     * Builds a model from the counts of the serialized models of older versions, where an edit was
+     * a key like "e|i" (the noisy characters, a pipe, and the clean ones) and the characters and
+     * pairs of characters of the clean queries were keys like "e" and "ei".
+     */
+    static EmpiricalCostModel fromLegacyCounts(Map<String, Integer> errorCounts, Map<String, Integer> kgramCounts) {
+        EmpiricalCostModel model = new EmpiricalCostModel();
+        for (Map.Entry<String, Integer> e : errorCounts.entrySet()) {
+            String[] pair = e.getKey().split("\\" + PIPE);
+            Assert.check(pair.length == 2, "Incorrect format found - expected: noisyChars|cleanChars, but got: " + e.getKey());
+            String noisy = pair[0];
+            String clean = pair[1];
+            int edit;
+            if (noisy.length() == 1 && clean.length() == 2) {
+                edit = edit(DELETION, index(clean.charAt(0)), index(clean.charAt(1)));
+            } else if (noisy.length() == 2 && clean.length() == 1) {
+                edit = edit(INSERTION, index(noisy.charAt(0)), index(noisy.charAt(1)));
+            } else if (noisy.length() == 1 && clean.length() == 1) {
+                edit = edit(SUBSTITUTION, index(noisy.charAt(0)), index(clean.charAt(0)));
+            } else {
+                edit = edit(TRANSPOSITION, index(clean.charAt(0)), index(clean.charAt(1)));
+            }
+            model.editCounts[edit] += e.getValue();
         }
-        errorCounts.put(EmpericalNoise, count+1);
+        for (Map.Entry<String, Integer> e : kgramCounts.entrySet()) {
+            String kgram = e.getKey();
+            if (kgram.length() == 1) {
+                model.charCounts[index(kgram.charAt(0))] += e.getValue();
+            } else if (kgram.length() == 2) {
+                model.charBigramCounts[index(kgram.charAt(0)) * CHARS + index(kgram.charAt(1))] += e.getValue();
+            }
+        }
+        model.computeLogProbabilities();
+        return model;
     }
 
-    // Update bigram term and increase count
-    private void updateKGramCounts(String bi_gram){
-        int count = 0;
-        if (kgramCounts.containsKey(bi_gram)) {
-            count = kgramCounts.get(bi_gram);
+    // P(edit) = (times the edit was made + 1) / (times it could have been made + number of characters)
+    private void computeLogProbabilities() {
+        for (int kind = DELETION; kind <= TRANSPOSITION; ++kind) {
+            for (int x = 0; x < CHARS; ++x) {
+                for (int y = 0; y < CHARS; ++y) {
+                    int opportunities;
+                    if (kind == DELETION || kind == TRANSPOSITION) {
+                        opportunities = charBigramCounts[x * CHARS + y];
+                    } else if (kind == INSERTION) {
+                        opportunities = charCounts[x];
+                    } else {
+                        opportunities = charCounts[y];
+                    }
+                    int edit = edit(kind, x, y);
+                    logProbabilities[edit] = Math.log((editCounts[edit] + 1.0) / (opportunities + CHARS));
+                }
+            }
         }
-        kgramCounts.put(bi_gram, count+1);
     }
 
-    private String determineChange(String from, String to) {
-        char[] cnoisy = from.toCharArray();
-        char[] cclean = to.toCharArray();
-
-        int noise_MAX = cnoisy.length;
-        int clean_MAX = cclean.length;
-        int i=0;
-
-        String EmpericalNoise = null;
-
-        while (i <= noise_MAX || i <= clean_MAX) {
+    static int index(char c) {
+        return c < INDEX.length ? INDEX[c] : OTHER;
+    }
 
-            if (i<clean_MAX) {
-                //Store all character unigrams in hash to use as denominator
-                String uni_gram = "" + cclean[i];
-                updateKGramCounts(uni_gram);
+    static int edit(int kind, int x, int y) {
+        return (kind * CHARS + x) * CHARS + y;
+    }
 
-                if (i > 0) {
-                    //Store all character bigrams in hash to use as denominator
+    /**
+     * Finds the edits that turn a clean string into a noisy one. A single edit is read off the
+     * common prefix and suffix of the two strings; anything else is aligned with the optimal string
+     * alignment distance, whose matrix is kept between calls.
+     */
+    static class Alignment {
 
-                    String bi_gram = "" + cclean[i - 1] + cclean[i];
-                    updateKGramCounts(bi_gram);
+        // the edits found by the last call, as indexes into the tables
+        int[] edits = new int[8];
+        private int[][] d = new int[16][16];
 
-                }
+        /**
+         * @return the number of edits, which are left in {@link #edits}
+         */
+        int edits(String noisy, String clean) {
+            int n = noisy.length();
+            int m = clean.length();
+            int shorter = Math.min(n, m);
+            int prefix = 0;
+            while (prefix < shorter && noisy.charAt(prefix) == clean.charAt(prefix)) {
+                prefix++;
+            }
+            int suffix = 0;
+            while (suffix < shorter - prefix && noisy.charAt(n - 1 - suffix) == clean.charAt(m - 1 - suffix)) {
+                suffix++;
             }
 
-            if (clean_MAX > noise_MAX) {
-                //Check deletions
-                if (i==noise_MAX) {  // Last character is deleted
-                    EmpericalNoise = "" + cnoisy[i - 1] + PIPE + cclean[i-1] + cclean[i];
-                    //Logger.print(true, "1 deletion chars: " + EmpericalNoise);
-                    break;
-                }
-                if(cclean[i] != cnoisy[i]) {// First non match
-                    EmpericalNoise = "" + cnoisy[i - 1] + PIPE + cclean[i-1] + cclean[i];
-                    //Logger.print(true, "2 deletion chars: " + EmpericalNoise);
-                    break;
-                }
+            int p = prefix;
+            if (n == m + 1 && p + suffix == m) {
+                edits[0] = edit(INSERTION, context(clean, p), index(noisy.charAt(p)));
+                return 1;
+            }
+            if (n == m - 1 && p + suffix == n) {
+                edits[0] = edit(DELETION, context(clean, p), index(clean.charAt(p)));
+                return 1;
+            }
+            if (n == m && p + suffix == m - 1) {
+                edits[0] = edit(SUBSTITUTION, index(noisy.charAt(p)), index(clean.charAt(p)));
+                return 1;
+            }
+            if (n == m && p + suffix == m - 2 && noisy.charAt(p) == clean.charAt(p + 1) && noisy.charAt(p + 1) == clean.charAt(p)) {
+                edits[0] = edit(TRANSPOSITION, index(clean.charAt(p)), index(clean.charAt(p + 1)));
+                return 1;
+            }
+            return align(noisy, clean);
+        }
 
-            }else if (clean_MAX < noise_MAX) {
-                // Check insertions
-                if (i==clean_MAX) {  //Last character is added to noise
-                    EmpericalNoise = "" + cnoisy[i - 1] + cnoisy[i] + PIPE + cclean[i-1];
-                    //Logger.print(true, "1 insertions chars: " + EmpericalNoise);
-                    break;
-                }
+        // the character before position i of the clean string
+        private static int context(String clean, int i) {
+            return i > 0 ? index(clean.charAt(i - 1)) : START;
+        }
 
-                if(cclean[i] != cnoisy[i]) {// First non match
-                    EmpericalNoise = "" + cnoisy[i - 1] + cnoisy[i] + PIPE + cclean[i-1];
-                    //Logger.print(true, "2 insertions chars: " + EmpericalNoise);
-                    break;
-                }
+        private int align(String noisy, String clean) {
+            int n = noisy.length();
+            int m = clean.length();
+            if (d.length < m + 1 || d[0].length < n + 1) {
+                d = new int[Math.max(d.length, m + 1)][Math.max(d[0].length, n + 1)];
+            }
+            if (edits.length < n + m) {
+                edits = new int[n + m];
+            }
 
-            }else { // Length matches.  Check Replace, Transposition, Correct
-                if((cclean[i] != cnoisy[i]) && (i !=noise_MAX-1)){ // Not last character.  Check future for transpose
-                    if (cclean[i+1] != cnoisy[i+1]) { // Transposition
-                        EmpericalNoise = "" + cnoisy[i] + cclean[i] + PIPE + cclean[i] + cnoisy[i];
-                        //Logger.print(true, "1 Transposition chars: " + EmpericalNoise );
-                        break;
-                    }else {// Replace
-                        EmpericalNoise = "" + cnoisy[i] + PIPE + cclean[i];
-                        //Logger.print(true, "1 Replace chars: " +  EmpericalNoise );
-                        break;
+            // d[i][j]: distance between the first i clean characters and the first j noisy ones
+            for (int i = 0; i <= m; ++i) {
+                d[i][0] = i;
+            }
+            for (int j = 0; j <= n; ++j) {
+                d[0][j] = j;
+            }
+            for (int i = 1; i <= m; ++i) {
+                for (int j = 1; j <= n; ++j) {
+                    int cost = clean.charAt(i - 1) == noisy.charAt(j - 1) ? 0 : 1;
+                    int v = Math.min(d[i - 1][j - 1] + cost, Math.min(d[i - 1][j], d[i][j - 1]) + 1);
+                    if (swapped(noisy, clean, i, j)) {
+                        v = Math.min(v, d[i - 2][j - 2] + 1);
                     }
-                }else if ( (cclean[i] != cnoisy[i]) && (i == noise_MAX-1))  { //Last character.  Must be replace
-                    EmpericalNoise = "" + cnoisy[i] + PIPE + cclean[i];
-                    break;
-                }else if ((cclean[i] == cnoisy[i]) && (i == noise_MAX-1)){ // No errors
-                    //Logger.print(true, "No Errors: ");
-                    break;
+                    d[i][j] = v;
                 }
             }
-            i++;
-        }// while loop
 
-        Assert.check(EmpericalNoise.contains(PIPE), "Pipe character not found - Incorrect format for the change between '" + from + "' and '" + to +"'");
+            // walk back from the bottom right corner
+            int count = 0;
+            int i = m;
+            int j = n;
+            while (i > 0 || j > 0) {
+                if (i > 0 && j > 0 && clean.charAt(i - 1) == noisy.charAt(j - 1) && d[i][j] == d[i - 1][j - 1]) {
+                    i--;
+                    j--;
+                } else if (swapped(noisy, clean, i, j) && d[i][j] == d[i - 2][j - 2] + 1) {
+                    edits[count++] = edit(TRANSPOSITION, index(clean.charAt(i - 2)), index(clean.charAt(i - 1)));
+                    i -= 2;
+                    j -= 2;
+                } else if (i > 0 && j > 0 && d[i][j] == d[i - 1][j - 1] + 1) {
+                    edits[count++] = edit(SUBSTITUTION, index(noisy.charAt(j - 1)), index(clean.charAt(i - 1)));
+                    i--;
+                    j--;
+                } else if (i > 0 && d[i][j] == d[i - 1][j] + 1) {
+                    edits[count++] = edit(DELETION, context(clean, i - 1), index(clean.charAt(i - 1)));
+                    i--;
+                } else {
+                    edits[count++] = edit(INSERTION, context(clean, i), index(noisy.charAt(j - 1)));
+                    j--;
+                }
+            }
+            return count;
+        }
 
-        return EmpericalNoise;
+        // true if the clean characters i - 2 and i - 1 were typed the other way around at j - 2 and j - 1
+        private static boolean swapped(String noisy, String clean, int i, int j) {
+            return i > 1 && j > 1 && clean.charAt(i - 1) == noisy.charAt(j - 2) && clean.charAt(i - 2) == noisy.charAt(j - 1)
+                    && clean.charAt(i - 1) != clean.charAt(i - 2);
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,41 +1,120 @@
 package edu.stanford.cs276;
 
-import edu.stanford.cs276.util.Dictionary;
+import edu.stanford.cs276.util.Assert;
+import edu.stanford.cs276.util.CountMinSketch;
+import edu.stanford.cs276.util.LongDoubleMap;
+import edu.stanford.cs276.util.ModelFile;
+import edu.stanford.cs276.util.Vocabulary;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
-import java.util.HashMap;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
 
 import static edu.stanford.cs276.Config.LAMBDA_1;
+import static edu.stanford.cs276.Config.LAMBDA_2;
 
 /**
  * LanguageModel class constructs a language model from the training corpus.
  * This model will be used to score generated query candidates.
  * <p>
+ * The model keeps the counts its probabilities were computed from, so that new documents can be
+ * added to it without reading the whole corpus again (see {@link #update(String, int)}). Each update
+ * is saved as a new version of the model, next to the previous ones, and {@link #load()} loads the
+ * latest version.
+ * <p>
+ * For corpora whose distinct bigrams do not fit in memory, the bigram counts can instead be
+ * approximated by a {@link CountMinSketch} of a given size (see {@link #create(String, int, long)}).
+ * Such a model keeps no bigram table: bigram probabilities are computed from the estimated counts,
+ * which may be too high, by at most the error bound reported when the model is built.
+ * <p>
+ * The exact counts of a corpus too large to count in memory can be spilled to disk and merged
+ * instead (see {@link SpilledCounts}), which builds the same model.
+ * <p>
+ * A saved model is memory-mapped rather than read (see {@link #load()}), so its tables are only
+ * paged in as queries touch them, and the OS evicts the pages that go unused when memory runs low.
+ * Bigrams are stored in blocks, one per first term, with an index from each term to its block
+ * (see {@link #bigramIndexOf(int, int)}): scoring the words that may follow a term only touches
+ * the pages of that term's block, not the whole bigram table.
+ * <p>
  * This class uses the Singleton design pattern
  * (https://en.wikipedia.org/wiki/Singleton_pattern).
  */
-public class LanguageModel implements Serializable {
+public class LanguageModel {
 
-    private static final long serialVersionUID = 1L;
-    private static LanguageModel lm_;
+    static final String MODEL_KIND = "languageModel";
 
-    Dictionary unigrams = new Dictionary();
-    Dictionary bigrams = new Dictionary();
+    // size of the pieces of corpus files that are read and counted in parallel
+    static final long CHUNK_BYTES = 16 << 20;
 
-    // counts the total number of terms in the corpus
-    private int termCounter = 1;
+    // rows of the sketch of an approximate model; an estimate exceeds its error bound with probability e^-SKETCH_DEPTH
+    private static final int SKETCH_DEPTH = 4;
+    private static LanguageModel lm_;
 
-    // maps to store probabilities of unigrams and bigrams
-    private Map<String, Double> unigramProbabilities = new HashMap<>();
-    private Map<String, Double> bigramProbabilities  = new HashMap<>();
+    // every term of the corpus, mapped to an int id; ids follow the lexicographic order of the terms
+    Vocabulary vocabulary;
+
+    // unigram probabilities, indexed by term id
+    private ByteBuffer unigramBytes;
+    private DoubleBuffer unigramProbabilities;
+
+    // interpolated bigram probabilities, keyed by bigramKey(id1, id2) and stored in increasing key order
+    private LongDoubleMap bigramProbabilities;
+
+    // by term id, the index in bigramProbabilities of the first bigram that starts with the term,
+    // then the number of bigrams: the bigrams of a term lie between its entry and the next one.
+    // Null for a model saved before the index was, whose bigrams are looked up by hashing
+    private ByteBuffer bigramIndexBytes;
+    private IntBuffer bigramIndex;
+
+    // the log probabilities that queries are scored with, which fold in the LAMBDA_2 interpolation
+    // of a bigram with the unigram of its second term: log P(w) by term id, log(LAMBDA_2 P(w)) by
+    // term id for the bigrams that never occurred, and log(LAMBDA_2 P(w2) + (1 - LAMBDA_2) P(w1 w2))
+    // for the others, in the order of the entries of bigramProbabilities
+    private ByteBuffer unigramLogBytes;
+    private DoubleBuffer unigramLogProbabilities;
+    private ByteBuffer backoffLogBytes;
+    private DoubleBuffer backoffLogProbabilities;
+    private ByteBuffer bigramLogBytes;
+    private DoubleBuffer bigramLogProbabilities;
+
+    // by term id, the highest log probability of the term following any other (see maxLogProbability)
+    private ByteBuffer boundLogBytes;
+    private DoubleBuffer boundLogProbabilities;
+
+    // checksum of the vocabulary, which identifies the term ids of this model
+    private long vocabularyChecksum;
+
+    // identifies the model file this model was read from (see ModelFile#fingerprint), 0 for a model built in this process
+    private long fingerprint;
+
+    // the counts of the corpus: occurrences by term id, total number of terms, and occurrences of
+    // the bigrams in the order of the entries of bigramProbabilities. Null for a model saved before
+    // the counts were, which cannot be updated
+    private ByteBuffer unigramCountBytes;
+    private IntBuffer unigramCounts;
+    private long termCount;
+    private ByteBuffer bigramCountBytes;
+    private IntBuffer bigramCounts;
+
+    // 1 for a model built from a whole corpus, one more for each update since
+    private int version = 1;
+
+    // approximate bigram counts, keyed by bigramKey(id1, id2), for a model without a bigram table; null otherwise
+    private CountMinSketch bigramSketch;
 
     /*
    * Feel free to add more members here (e.g., a data structure that stores bigrams)
@@ -53,95 +132,439 @@ public class LanguageModel implements Serializable {
      * <p>
      * For more info about the Singleton pattern, see https://en.wikipedia.org/wiki/Singleton_pattern.
      */
-    private LanguageModel(String corpusFilePath) throws Exception {
-        constructDictionaries(corpusFilePath);
+    private LanguageModel(String corpusFilePath, int threads, long sketchBytes, long spillBytes) throws Exception {
+        Assert.check(sketchBytes == 0 || spillBytes == 0, "Bigram counts are either estimated or spilled to disk, not both");
+        if (sketchBytes > 0) {
+            constructApproximateDictionaries(corpusFilePath, threads, sketchBytes);
+        } else if (spillBytes > 0) {
+            constructSpilledDictionaries(corpusFilePath, threads, spillBytes);
+        } else {
+            constructDictionaries(corpusFilePath, threads);
+        }
+    }
+
+    private LanguageModel() {
     }
 
     /**
      * This method is called by the constructor, and computes language model parameters
      * (i.e. counts of unigrams, bigrams, etc.), which are then stored in the class members
      * declared above.
+     * <p>
+     * The corpus files are split into chunks of about {@link #CHUNK_BYTES} bytes, which the passed
+     * number of workers count in parallel, each into its own tables. The tables are then merged
+     * pairwise, also in parallel. Counts are exact, so the model is the same for any number of workers.
      */
-    public void constructDictionaries(String corpusFilePath) throws Exception {
+    public void constructDictionaries(String corpusFilePath, int threads) throws Exception {
 
         System.out.println("Constructing dictionaries...");
+        computeProbabilities(count(corpusFilePath, threads, true));
+        System.out.println("Done.");
+    }
+
+    /**
+     * Same as {@link #constructDictionaries(String, int)}, except that the bigram counts are
+     * estimated in a sketch of the passed number of bytes, so that memory does not grow with the
+     * number of distinct bigrams. The corpus is read twice: first to count the terms, then to count
+     * the bigrams by the ids of their terms. Every chunk's bigrams are counted exactly before they
+     * are added to the sketch, so memory stays bounded by the chunk size.
+     */
+    public void constructApproximateDictionaries(String corpusFilePath, int threads, long sketchBytes) throws Exception {
+
+        System.out.println("Constructing dictionaries, with bigram counts estimated in " + sketchBytes + " bytes...");
+        CorpusCounts counts = count(corpusFilePath, threads, false);
+
+        int[] newIds = new int[counts.terms.size()];
+        Vocabulary sortedVocabulary = counts.terms.sorted(newIds);
+        int[] sortedCounts = new int[newIds.length];
+        for (int id = 0; id < newIds.length; ++id) {
+            sortedCounts[newIds[id]] = counts.unigramCounts[id];
+        }
+
+        CountMinSketch sketch = CountMinSketch.withBudget(sketchBytes, SKETCH_DEPTH);
+        ConcurrentLinkedQueue<CorpusCounts.Chunk> chunks = chunks(corpusFilePath);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; ++t) {
+                workers.add(pool.submit(() -> {
+                    CorpusCounts.Chunk chunk = null;
+                    while ((chunk = chunks.poll()) != null) {
+                        LongDoubleMap chunkCounts = CorpusCounts.countBigrams(chunk, sortedVocabulary);
+                        synchronized (sketch) {
+                            for (int i = 0; i < chunkCounts.size(); ++i) {
+                                sketch.add(chunkCounts.keyAt(i), (int) chunkCounts.valueAt(i));
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        bigramSketch = sketch;
+        computeProbabilities(sortedVocabulary, sortedCounts, counts.termCount, new long[0], new int[0]);
+
+        System.out.printf("Done: bigram counts are overestimated by at most %d (epsilon %.2e of %d bigrams), "
+                + "except with probability %.3f.\n", sketch.errorBound(), sketch.epsilon(), sketch.total(), sketch.delta());
+    }
+
+    /**
+     * Same as {@link #constructDictionaries(String, int)}, except that the counts of the workers are
+     * spilled to disk whenever they take more than their share of the passed number of bytes, and
+     * the spilled runs are merged into the tables of the model, which are memory-mapped files. The
+     * model is the same as the one built in memory.
+     */
+    public void constructSpilledDictionaries(String corpusFilePath, int threads, long spillBytes) throws Exception {
+
+        System.out.println("Constructing dictionaries, spilling counts to disk beyond " + spillBytes + " bytes...");
+        ConcurrentLinkedQueue<CorpusCounts.Chunk> chunks = chunks(corpusFilePath);
+        try (SpilledCounts spilled = new SpilledCounts(spillBytes / threads)) {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> workers = new ArrayList<>();
+                for (int t = 0; t < threads; ++t) {
+                    workers.add(pool.submit(() -> {
+                        CorpusCounts counts = new CorpusCounts();
+                        CorpusCounts.Chunk chunk = null;
+                        while ((chunk = chunks.poll()) != null) {
+                            if (chunk.start == 0) {
+                                System.out.printf("Reading data file %s ...\n", chunk.file.getName());
+                            }
+                            counts = spilled.addChunk(counts, chunk);
+                        }
+                        spilled.spill(counts);
+                        return null;
+                    }));
+                }
+                for (Future<?> worker : workers) {
+                    worker.get();
+                }
+            } finally {
+                pool.shutdown();
+            }
+
+            System.out.println("Merging " + spilled.runCount() + " runs...");
+            SpilledCounts.Merged merged = spilled.merge();
+            computeProbabilities(merged.vocabulary, merged.unigramCounts, merged.termCount,
+                    merged.keyBytes, merged.countBytes, spilled::map);
+        }
+
+        System.out.println("Done.");
+    }
+
+    // the chunks of the corpus files in the passed directory
+    private static ConcurrentLinkedQueue<CorpusCounts.Chunk> chunks(String corpusFilePath) throws IOException {
+        ConcurrentLinkedQueue<CorpusCounts.Chunk> chunks = new ConcurrentLinkedQueue<>();
         File dir = new File(corpusFilePath);
         for (File file : dir.listFiles()) {
             if (".".equals(file.getName()) || "..".equals(file.getName())) {
                 continue; // Ignore the self and parent aliases.
             }
-            System.out.printf("Reading data file %s ...\n", file.getName());
-            BufferedReader input = new BufferedReader(new FileReader(file));
-            String line = null;
-
-            System.out.println(file.getName() + "----------------------------------- ");
-            while ((line = input.readLine()) != null) {
+            chunks.addAll(CorpusCounts.chunks(file, CHUNK_BYTES));
+        }
+        return chunks;
+    }
 
-                if (line.isEmpty()) {
-                    continue;
-                }
+    /**
+     * Counts the terms, and the bigrams if countBigrams, of the corpus files in the passed
+     * directory, with the passed number of workers (see {@link #constructDictionaries(String, int)}).
+     */
+    private static CorpusCounts count(String corpusFilePath, int threads, boolean countBigrams) throws Exception {
+        ConcurrentLinkedQueue<CorpusCounts.Chunk> chunks = chunks(corpusFilePath);
 
-                /*
-                 * Remember: each line is a document (refer to PA2 handout)
-                 * TODO: Your code here
-                 */
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<CorpusCounts>> parts = new ArrayList<>();
+            for (int t = 0; t < threads; ++t) {
+                parts.add(pool.submit(() -> {
+                    CorpusCounts counts = new CorpusCounts(countBigrams);
+                    CorpusCounts.Chunk chunk = null;
+                    while ((chunk = chunks.poll()) != null) {
+                        if (chunk.start == 0) {
+                            System.out.printf("Reading data file %s ...\n", chunk.file.getName());
+                        }
+                        counts.addChunk(chunk);
+                    }
+                    return counts;
+                }));
+            }
 
-                String[] words = line.trim().split("\\s+");
-                String previousWord = words[0];
-                unigrams.add(previousWord);
+            // merge the counts of the workers pairwise, until there is only one left
+            while (parts.size() > 1) {
+                List<Future<CorpusCounts>> merged = new ArrayList<>();
+                for (int i = 0; i < parts.size(); i += 2) {
+                    Future<CorpusCounts> a = parts.get(i);
+                    if (i + 1 == parts.size()) {
+                        merged.add(a);
+                        continue;
+                    }
+                    Future<CorpusCounts> b = parts.get(i + 1);
+                    merged.add(pool.submit(() -> {
+                        CorpusCounts counts = a.get();
+                        counts.addAll(b.get());
+                        return counts;
+                    }));
+                }
+                parts = merged;
+            }
 
-                for (int i=1; i<words.length; ++i) {
-                    String w = words[i];
-                    unigrams.add(w);
+            return parts.get(0).get();
+        } finally {
+            pool.shutdown();
+        }
+    }
 
-                    String bigram = previousWord + " " + w ;
+    /**
+     * Computes the model's probabilities from raw counts. Terms are renumbered in lexicographic order
+     * first, so that the vocabulary and the bigram table end up as sorted arrays.
+     */
+    private void computeProbabilities(CorpusCounts counts) {
+        int[] newIds = new int[counts.terms.size()];
+        Vocabulary sortedVocabulary = counts.terms.sorted(newIds);
 
-                    bigrams.add(bigram);
+        int[] sortedCounts = new int[newIds.length];
+        for (int id = 0; id < newIds.length; ++id) {
+            sortedCounts[newIds[id]] = counts.unigramCounts[id];
+        }
 
-                    previousWord = w;
-                }
+        long[] sortedKeys = new long[counts.bigramCounts.size()];
+        for (int i = 0; i < sortedKeys.length; ++i) {
+            long key = counts.bigramCounts.keyAt(i);
+            sortedKeys[i] = bigramKey(newIds[firstId(key)], newIds[secondId(key)]);
+        }
+        Arrays.parallelSort(sortedKeys);
 
-            }
-            input.close();
+        int[] oldIds = new int[newIds.length];
+        for (int id = 0; id < newIds.length; ++id) {
+            oldIds[newIds[id]] = id;
         }
 
-        computeUnigramProbabilities();
-        computeBigramProbabilities();
+        int[] sortedBigramCounts = new int[sortedKeys.length];
+        IntStream.range(0, sortedKeys.length).parallel().forEach(i -> {
+            long key = bigramKey(oldIds[firstId(sortedKeys[i])], oldIds[secondId(sortedKeys[i])]);
+            sortedBigramCounts[i] = (int) counts.bigramCounts.get(key, 0);
+        });
 
-        System.out.println("Done.");
+        computeProbabilities(sortedVocabulary, sortedCounts, counts.termCount, sortedKeys, sortedBigramCounts);
     }
 
-    private void computeUnigramProbabilities() {
-        HashMap<String, Integer> map = unigrams.map();
-        int t = unigrams.termCount();
-        for (String w : map.keySet()) {
-            int wCount = map.get(w);
-            double p =  wCount/(double)t;
-            unigramProbabilities.put(w, p);
-        }
+    /**
+     * Computes the model's probabilities from counts whose term ids follow the lexicographic order
+     * of the terms of the passed vocabulary, and keeps the counts.
+     *
+     * @param sortedKeys the bigram keys, in increasing order
+     * @param bigramCounts the occurrences of each bigram of sortedKeys
+     */
+    private void computeProbabilities(Vocabulary sortedVocabulary, int[] unigramCounts, long termCount,
+                                      long[] sortedKeys, int[] bigramCounts) {
+        ByteBuffer keyBytes = ModelFile.allocate(sortedKeys.length * 8);
+        keyBytes.asLongBuffer().put(sortedKeys);
+        ByteBuffer countBytes = ModelFile.allocate(bigramCounts.length * 4);
+        countBytes.asIntBuffer().put(bigramCounts);
+        computeProbabilities(sortedVocabulary, unigramCounts, termCount, keyBytes, countBytes, ModelFile::allocate);
     }
 
-    private void computeBigramProbabilities() {
-        HashMap<String, Integer> map = bigrams.map();
-        for (String w1w2 : map.keySet()) {
+    /**
+     * Same as above, with the bigram keys and counts in buffers that hold exactly one entry per
+     * bigram, and the tables that have one entry per bigram allocated by the passed function, so
+     * that they can live outside of the heap.
+     */
+    private void computeProbabilities(Vocabulary sortedVocabulary, int[] unigramCounts, long termCount,
+                                      ByteBuffer sortedKeyBytes, ByteBuffer bigramCountBytes, IntFunction<ByteBuffer> allocate) {
+        vocabulary = sortedVocabulary;
+        vocabularyChecksum = vocabulary.checksum();
+
+        unigramCountBytes = ModelFile.allocate(unigramCounts.length * 4);
+        this.unigramCounts = unigramCountBytes.asIntBuffer();
+        this.unigramCounts.put(unigramCounts);
+        this.termCount = termCount;
+        this.bigramCountBytes = bigramCountBytes;
+        this.bigramCounts = bigramCountBytes.asIntBuffer();
+
+        computeUnigramProbabilities(unigramCounts, termCount);
+        computeBigramProbabilities(unigramCounts, sortedKeyBytes, allocate);
+        computeLogProbabilities(allocate);
+    }
 
-            String[] pair = w1w2.split("\\s+");
+    private void computeUnigramProbabilities(int[] unigramCounts, long termCount) {
+        unigramBytes = ModelFile.allocate(unigramCounts.length * 8);
+        unigramProbabilities = unigramBytes.asDoubleBuffer();
+        IntStream.range(0, unigramCounts.length).parallel().forEach(id ->
+                unigramProbabilities.put(id, unigramCounts[id]/(double)termCount));
+    }
 
-            String w1 = pair[0];
-            String w2 = pair[1];
+    private void computeBigramProbabilities(int[] unigramCounts, ByteBuffer sortedKeyBytes, IntFunction<ByteBuffer> allocate) {
+        LongBuffer sortedKeys = sortedKeyBytes.asLongBuffer();
+        int bigramCount = sortedKeys.limit();
+        ByteBuffer valueBytes = allocate.apply(bigramCount * 8);
+        DoubleBuffer probabilities = valueBytes.asDoubleBuffer();
+        IntStream.range(0, bigramCount).parallel().forEach(i -> {
+            int w1 = firstId(sortedKeys.get(i));
+            int w2 = secondId(sortedKeys.get(i));
 
             // compute the bigram's probability
-            int w1w2Count = map.get(w1w2);
+            double w1w2Count = bigramCounts.get(i);
+            double p = w1w2Count/(double)unigramCounts[w1];
+
+            // interpolate the result
+            probabilities.put(i, (LAMBDA_1 * unigramProbabilities.get(w2)) + ((1- LAMBDA_1) * p));
+        });
+
+        bigramProbabilities = LongDoubleMap.of(sortedKeyBytes, valueBytes, allocate.apply(LongDoubleMap.slotBytes(bigramCount)), bigramCount);
+
+        // the keys are sorted, so the bigrams of each first term are contiguous
+        int size = vocabulary.size();
+        bigramIndexBytes = ModelFile.allocate((size + 1) * 4);
+        bigramIndex = bigramIndexBytes.asIntBuffer();
+        int i = 0;
+        for (int id = 0; id <= size; ++id) {
+            while (i < bigramCount && firstId(sortedKeys.get(i)) < id) {
+                i++;
+            }
+            bigramIndex.put(id, i);
+        }
+    }
 
-            int w1Count = unigrams.map().get(w1);
-            double p = w1w2Count/(double)w1Count;
+    private void computeLogProbabilities(IntFunction<ByteBuffer> allocate) {
+        int size = vocabulary.size();
+        unigramLogBytes = allocate.apply(size * 8);
+        unigramLogProbabilities = unigramLogBytes.asDoubleBuffer();
+        backoffLogBytes = allocate.apply(size * 8);
+        backoffLogProbabilities = backoffLogBytes.asDoubleBuffer();
+        IntStream.range(0, size).parallel().forEach(id -> {
+            double p = unigramProbabilities.get(id);
+            unigramLogProbabilities.put(id, Math.log(p));
+            backoffLogProbabilities.put(id, Math.log(LAMBDA_2 * p));
+        });
+
+        int bigramCount = bigramProbabilities.size();
+        bigramLogBytes = allocate.apply(bigramCount * 8);
+        bigramLogProbabilities = bigramLogBytes.asDoubleBuffer();
+        IntStream.range(0, bigramCount).parallel().forEach(i -> {
+            double uniProb = unigramProbabilities.get(secondId(bigramProbabilities.keyAt(i)));
+            double biProb = bigramProbabilities.valueAt(i);
+            bigramLogProbabilities.put(i, Math.log((LAMBDA_2 * uniProb) + ((1 - LAMBDA_2) * biProb)));
+        });
+
+        boundLogBytes = allocate.apply(size * 8);
+        boundLogProbabilities = boundLogBytes.asDoubleBuffer();
+        for (int id = 0; id < size; ++id) {
+            boundLogProbabilities.put(id, backoffLogProbabilities.get(id));
+        }
+        if (bigramSketch != null) {
+            // which bigrams occurred is not known, so any term may follow another with a bigram probability of 1
+            for (int id = 0; id < size; ++id) {
+                double uniProb = unigramProbabilities.get(id);
+                double biProb = (LAMBDA_1 * uniProb) + (1 - LAMBDA_1);
+                boundLogProbabilities.put(id, Math.log((LAMBDA_2 * uniProb) + ((1 - LAMBDA_2) * biProb)));
+            }
+        }
+        for (int i = 0; i < bigramCount; ++i) {
+            int id = secondId(bigramProbabilities.keyAt(i));
+            boundLogProbabilities.put(id, Math.max(boundLogProbabilities.get(id), bigramLogProbabilities.get(i)));
+        }
+    }
 
+    /**
+     * Adds the documents of the corpus files in the passed directory to the corpus of this model,
+     * and returns the model of the enlarged corpus, as the next version of this one. Only the new
+     * documents are read: their counts are merged into the counts of this model, whose terms and
+     * bigrams are sorted already, so the update takes time proportional to the new documents plus
+     * one pass over the model. The result is the model that BuildModels would build from the whole
+     * corpus. This model is left as it is.
+     */
+    public LanguageModel update(String corpusFilePath, int threads) throws Exception {
+        Assert.check(unigramCounts != null, "The language model has no counts to add documents to, "
+                + "because it was saved before models kept their counts: rebuild it with BuildModels");
+        Assert.check(bigramSketch == null, "The language model estimates its bigram counts, "
+                + "which cannot be updated: rebuild it with BuildModels");
+
+        System.out.println("Updating dictionaries...");
+        CorpusCounts delta = count(corpusFilePath, threads, true);
+
+        // the new terms, sorted, are merged with the terms of this model
+        List<String> added = new ArrayList<>();
+        for (int id = 0; id < delta.terms.size(); ++id) {
+            String w = delta.terms.word(id);
+            if (!vocabulary.contains(w)) {
+                added.add(w);
+            }
+        }
+        Collections.sort(added);
+
+        int oldSize = vocabulary.size();
+        Vocabulary merged = new Vocabulary(oldSize + added.size());
+        int[] newIds = new int[oldSize];
+        int j = 0;
+        for (int id = 0; id < oldSize; ++id) {
+            String w = vocabulary.word(id);
+            while (j < added.size() && added.get(j).compareTo(w) < 0) {
+                merged.add(added.get(j++));
+            }
+            newIds[id] = merged.add(w);
+        }
+        while (j < added.size()) {
+            merged.add(added.get(j++));
+        }
+        int[] deltaIds = new int[delta.terms.size()];
+        for (int id = 0; id < deltaIds.length; ++id) {
+            deltaIds[id] = merged.id(delta.terms.word(id));
+        }
 
-            // interpolate the result
-            double pInterpolated = (LAMBDA_1 * unigramProbabilities.get(w2)) + ((1- LAMBDA_1) * p);
+        int[] unigrams = new int[merged.size()];
+        for (int id = 0; id < oldSize; ++id) {
+            unigrams[newIds[id]] = unigramCounts.get(id);
+        }
+        for (int id = 0; id < deltaIds.length; ++id) {
+            unigrams[deltaIds[id]] += delta.unigramCounts[id];
+        }
 
-            bigramProbabilities.put(w1w2, pInterpolated);
+        // renumbering keeps the order of the terms, so the bigrams of this model stay sorted, and
+        // only the bigrams of the new documents need sorting before both are merged
+        LongDoubleMap deltaBigrams = new LongDoubleMap(delta.bigramCounts.size());
+        long[] deltaKeys = new long[delta.bigramCounts.size()];
+        for (int i = 0; i < deltaKeys.length; ++i) {
+            long key = delta.bigramCounts.keyAt(i);
+            deltaKeys[i] = bigramKey(deltaIds[firstId(key)], deltaIds[secondId(key)]);
+            deltaBigrams.put(deltaKeys[i], delta.bigramCounts.valueAt(i));
         }
+        Arrays.sort(deltaKeys);
+
+        int oldBigrams = bigramProbabilities.size();
+        long[] keys = new long[oldBigrams + deltaKeys.length];
+        int[] bigrams = new int[keys.length];
+        int n = 0;
+        int d = 0;
+        for (int i = 0; i < oldBigrams; ++i) {
+            long key = bigramProbabilities.keyAt(i);
+            key = bigramKey(newIds[firstId(key)], newIds[secondId(key)]);
+            while (d < deltaKeys.length && deltaKeys[d] < key) {
+                keys[n] = deltaKeys[d];
+                bigrams[n++] = (int) deltaBigrams.get(deltaKeys[d++], 0);
+            }
+            keys[n] = key;
+            bigrams[n] = bigramCounts.get(i);
+            if (d < deltaKeys.length && deltaKeys[d] == key) {
+                bigrams[n] += (int) deltaBigrams.get(deltaKeys[d++], 0);
+            }
+            n++;
+        }
+        while (d < deltaKeys.length) {
+            keys[n] = deltaKeys[d];
+            bigrams[n++] = (int) deltaBigrams.get(deltaKeys[d++], 0);
+        }
+
+        LanguageModel lm = new LanguageModel();
+        lm.computeProbabilities(merged, unigrams, termCount + delta.termCount, Arrays.copyOf(keys, n), Arrays.copyOf(bigrams, n));
+        lm.version = Math.max(version, latestVersion()) + 1;
+        System.out.println("Done: " + added.size() + " new terms, " + (n - oldBigrams) + " new bigrams.");
+        return lm;
     }
 
     /**
@@ -149,53 +572,344 @@ public class LanguageModel implements Serializable {
      * new object rather than calling the constructor directly from outside this class
      */
     public static LanguageModel create(String corpusFilePath) throws Exception {
+        return create(corpusFilePath, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Same as {@link #create(String)}, reading the corpus with the passed number of worker threads.
+     */
+    public static LanguageModel create(String corpusFilePath, int threads) throws Exception {
+        return create(corpusFilePath, threads, 0);
+    }
+
+    /**
+     * Same as {@link #create(String, int)}, estimating the bigram counts in a sketch of sketchBytes
+     * bytes instead of counting them exactly, unless sketchBytes is 0.
+     */
+    public static LanguageModel create(String corpusFilePath, int threads, long sketchBytes) throws Exception {
+        return create(corpusFilePath, threads, sketchBytes, 0);
+    }
+
+    /**
+     * Same as {@link #create(String, int, long)}, spilling the counts to disk beyond spillBytes
+     * bytes, unless spillBytes is 0.
+     */
+    public static LanguageModel create(String corpusFilePath, int threads, long sketchBytes, long spillBytes) throws Exception {
         if (lm_ == null) {
-            lm_ = new LanguageModel(corpusFilePath);
+            lm_ = new LanguageModel(corpusFilePath, threads, sketchBytes, spillBytes);
         }
         return lm_;
     }
 
     /**
-     * Loads the language model object (and all associated data) from disk
+     * Loads the latest version of the language model from disk. The model file is memory-mapped
+     * rather than read, so this returns almost immediately, whatever the size of the model, and the
+     * model's data stays in the OS page cache, off the Java heap, paged in on first access.
      */
     public static LanguageModel load() throws Exception {
         try {
             if (lm_ == null) {
-                FileInputStream fiA = new FileInputStream(Config.languageModelFile);
-                ObjectInputStream oisA = new ObjectInputStream(fiA);
-                lm_ = (LanguageModel) oisA.readObject();
+                int version = Math.max(1, latestVersion());
+                lm_ = read(versionFile(version));
+                lm_.version = version;
             }
         } catch (Exception e) {
-            throw new Exception("Unable to load language model.  You may not have run buildmodels.sh!");
+            throw new Exception("Unable to load language model.  You may not have run buildmodels.sh, or the model "
+                    + "may predate the binary model format (see ModelConverter): " + e.getMessage());
         }
         return lm_;
     }
 
+    static LanguageModel read(String path) throws IOException {
+        ModelFile file = ModelFile.open(path, MODEL_KIND);
+        LanguageModel lm = new LanguageModel();
+        lm.vocabulary = Vocabulary.read(file, "vocab");
+        lm.unigramBytes = file.section("unigram.probs");
+        lm.unigramProbabilities = lm.unigramBytes.asDoubleBuffer();
+        lm.bigramProbabilities = LongDoubleMap.read(file, "bigram");
+        if (file.hasSection("bigram.index")) {
+            lm.bigramIndexBytes = file.section("bigram.index");
+            lm.bigramIndex = lm.bigramIndexBytes.asIntBuffer();
+        }
+        lm.vocabularyChecksum = file.checksum("vocab.chars");
+        lm.fingerprint = file.fingerprint();
+        if (file.hasSection("unigram.counts")) {
+            lm.unigramCountBytes = file.section("unigram.counts");
+            lm.unigramCounts = lm.unigramCountBytes.asIntBuffer();
+            lm.termCount = file.section("term.count").asLongBuffer().get(0);
+            lm.bigramCountBytes = file.section("bigram.counts");
+            lm.bigramCounts = lm.bigramCountBytes.asIntBuffer();
+        }
+        if (file.hasSection("sketch.cells")) {
+            lm.bigramSketch = CountMinSketch.read(file, "sketch");
+        }
+        if (file.hasSection("bound.logp")) {
+            lm.unigramLogBytes = file.section("unigram.logp");
+            lm.unigramLogProbabilities = lm.unigramLogBytes.asDoubleBuffer();
+            lm.backoffLogBytes = file.section("backoff.logp");
+            lm.backoffLogProbabilities = lm.backoffLogBytes.asDoubleBuffer();
+            lm.bigramLogBytes = file.section("bigram.logp");
+            lm.bigramLogProbabilities = lm.bigramLogBytes.asDoubleBuffer();
+            lm.boundLogBytes = file.section("bound.logp");
+            lm.boundLogProbabilities = lm.boundLogBytes.asDoubleBuffer();
+        } else {
+            // saved before the log probabilities were; they are computed off the heap, like the
+            // mapped tables, so that the resident model stays out of reach of the garbage collector
+            lm.computeLogProbabilities(ModelFile::allocateDirect);
+        }
+        return lm;
+    }
+
     /**
-     * Saves the object (and all associated data) to disk
+     * Saves the model (and all associated data) to disk, as its version. Saving a model built from a
+     * whole corpus deletes the versions that updated the previous one.
      */
     public void save() throws Exception {
-        FileOutputStream saveFile = new FileOutputStream(Config.languageModelFile);
-        ObjectOutputStream save = new ObjectOutputStream(saveFile);
-        save.writeObject(this);
-        save.close();
+        if (version == 1) {
+            for (int v = latestVersion(); v > 1; --v) {
+                Assert.check(new File(versionFile(v)).delete(), "Unable to delete " + versionFile(v));
+            }
+        }
+        write(versionFile(version));
+        System.out.println("Saved version " + version + " of the language model to " + versionFile(version));
+    }
+
+    /**
+     * @return the file that holds the passed version of the language model: {@link Config#languageModelFile}
+     * for the one built from a whole corpus, and the same name with a ".v&lt;version&gt;" suffix for updates
+     */
+    static String versionFile(int version) {
+        return version == 1 ? Config.languageModelFile : Config.languageModelFile + ".v" + version;
+    }
+
+    // the latest version of the language model on disk, or 0 if there is none
+    static int latestVersion() {
+        int version = 0;
+        while (new File(versionFile(version + 1)).isFile()) {
+            version++;
+        }
+        return version;
+    }
+
+    void write(String path) throws IOException {
+        ModelFile.Writer writer = new ModelFile.Writer(MODEL_KIND);
+        vocabulary.write(writer, "vocab");
+        writer.add("unigram.probs", unigramBytes.duplicate().position(0).limit(vocabulary.size() * 8));
+        bigramProbabilities.write(writer, "bigram");
+        writer.add("bigram.index", bigramIndexBytes.duplicate().position(0).limit((vocabulary.size() + 1) * 4));
+        writer.add("unigram.logp", unigramLogBytes.duplicate().position(0).limit(vocabulary.size() * 8));
+        writer.add("backoff.logp", backoffLogBytes.duplicate().position(0).limit(vocabulary.size() * 8));
+        writer.add("bigram.logp", bigramLogBytes.duplicate().position(0).limit(bigramProbabilities.size() * 8));
+        writer.add("bound.logp", boundLogBytes.duplicate().position(0).limit(vocabulary.size() * 8));
+        if (unigramCounts != null) {
+            writer.add("unigram.counts", unigramCountBytes.duplicate().position(0).limit(vocabulary.size() * 4));
+            ByteBuffer termCountBytes = ModelFile.allocate(8);
+            termCountBytes.asLongBuffer().put(0, termCount);
+            writer.add("term.count", termCountBytes);
+            writer.add("bigram.counts", bigramCountBytes.duplicate().position(0).limit(bigramProbabilities.size() * 4));
+        }
+        if (bigramSketch != null) {
+            bigramSketch.write(writer, "sketch");
+        }
+        writer.write(path);
+    }
+
+    /**
+     * Rebuilds a model from the counts of a model saved by an earlier version of this class.
+     */
+    static LanguageModel fromCounts(Map<String, Integer> unigrams, int termCount, Map<String, Integer> bigrams) {
+        CorpusCounts counts = new CorpusCounts();
+        for (Map.Entry<String, Integer> e : unigrams.entrySet()) {
+            counts.add(e.getKey(), e.getValue());
+        }
+        counts.termCount = termCount;
+        for (Map.Entry<String, Integer> e : bigrams.entrySet()) {
+            String[] pair = e.getKey().split("\\s+");
+            counts.bigramCounts.put(bigramKey(counts.terms.id(pair[0]), counts.terms.id(pair[1])), e.getValue());
+        }
+
+        LanguageModel lm = new LanguageModel();
+        lm.computeProbabilities(counts);
+        return lm;
+    }
+
+    /**
+     * @return the id of the passed term, or -1 if the term never occurred in the corpus
+     */
+    public int wordId(String w) {
+        return vocabulary.id(w);
+    }
+
+    public String word(int id) {
+        return vocabulary.word(id);
+    }
+
+    /**
+     * @return a checksum of the vocabulary: models built from the same terms, and therefore using
+     * the same term ids, have the same checksum
+     */
+    public long vocabularyChecksum() {
+        return vocabularyChecksum;
+    }
+
+    /**
+     * @return a fingerprint of the model file this model was read from, which changes whenever the
+     * model is rebuilt or updated with different data, or 0 for a model built in this process
+     */
+    public long fingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * returns true if w appears in the lexicon, either as a term or as a "w1 w2" bigram
+     */
+    public boolean isDictionaryWord(String w) {
+        if (vocabulary.contains(w)) {
+            return true;
+        }
+        int space = w.indexOf(' ');
+        if (space == -1) {
+            return false;
+        }
+        int id1 = vocabulary.id(w.substring(0, space));
+        int id2 = vocabulary.id(w.substring(space + 1));
+        if (id1 < 0 || id2 < 0) {
+            return false;
+        }
+        if (bigramSketch != null) {
+            return bigramSketch.estimate(bigramKey(id1, id2)) > 0;
+        }
+        return bigramIndexOf(id1, id2) != -1;
     }
 
+    /**
+     * @param bigram two terms separated by a single space
+     */
     public double getBigramProbability(String bigram) {
-        double d = 0.0;
-        if (bigramProbabilities.containsKey(bigram)) {
-            d = bigramProbabilities.get(bigram);
+        int space = bigram.indexOf(' ');
+        if (space == -1) {
+            return 0.0;
+        }
+        return getBigramProbability(vocabulary.id(bigram.substring(0, space)), vocabulary.id(bigram.substring(space + 1)));
+    }
+
+    public double getBigramProbability(int id1, int id2) {
+        if (id1 < 0 || id2 < 0) {
+            return 0.0;
+        }
+        if (bigramSketch != null) {
+            int count = bigramSketch.estimate(bigramKey(id1, id2));
+            return count == 0 ? 0.0 : estimatedBigramProbability(count, id1, id2);
+        }
+        int i = bigramIndexOf(id1, id2);
+        return i == -1 ? 0.0 : bigramProbabilities.valueAt(i);
+    }
+
+    /**
+     * @return the index in bigramProbabilities of the bigram of the terms with the passed ids, or -1
+     * if it never occurred. The bigram is searched for in the block of its first term, whose keys
+     * are sorted, rather than in the hash table, so that a lookup only touches the pages of the block
+     * and the slots of the hash table are never paged in.
+     */
+    private int bigramIndexOf(int id1, int id2) {
+        long key = bigramKey(id1, id2);
+        if (bigramIndex == null) {
+            return bigramProbabilities.indexOf(key);
+        }
+        int low = bigramIndex.get(id1);
+        int high = bigramIndex.get(id1 + 1) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midKey = bigramProbabilities.keyAt(mid);
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
         }
-        return d;
+        return -1;
+    }
+
+    // interpolated probability of a bigram estimated to occur count times, as computeBigramProbabilities
+    // computes it; a bigram never occurs more often than its first term
+    private double estimatedBigramProbability(int count, int id1, int id2) {
+        int w1Count = unigramCounts.get(id1);
+        double p = Math.min(count, w1Count)/(double)w1Count;
+        return (LAMBDA_1 * unigramProbabilities.get(id2)) + ((1- LAMBDA_1) * p);
+    }
+
+    /**
+     * @return the sketch that estimates the bigram counts of this model, or null if they are exact
+     */
+    public CountMinSketch bigramSketch() {
+        return bigramSketch;
     }
 
     public double getUnigramProbability(String unigram) {
-        double d = 0.0;
-        if (unigramProbabilities.containsKey(unigram)) {
-            d = unigramProbabilities.get(unigram);
+        return getUnigramProbability(vocabulary.id(unigram));
+    }
+
+    public double getUnigramProbability(int id) {
+        return id < 0 ? 0.0 : unigramProbabilities.get(id);
+    }
+
+    /**
+     * @return log P(w) for the term with the passed id, e.g. at the start of a query, or negative
+     * infinity for an unknown term (-1)
+     */
+    public double logProbability(int wordId) {
+        return wordId < 0 ? Double.NEGATIVE_INFINITY : unigramLogProbabilities.get(wordId);
+    }
+
+    /**
+     * @return the log probability of the term with id wordId following the one with id prevId. The
+     * bigram probability is interpolated with the unigram one (with LAMBDA_2), so that a bigram that
+     * never occurred in the corpus, or follows an unknown term (-1), still gets some probability.
+     * Negative infinity for an unknown term.
+     */
+    public double logProbability(int prevId, int wordId) {
+        if (wordId < 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        if (prevId >= 0 && bigramSketch != null) {
+            int count = bigramSketch.estimate(bigramKey(prevId, wordId));
+            if (count > 0) {
+                double uniProb = unigramProbabilities.get(wordId);
+                return Math.log((LAMBDA_2 * uniProb) + ((1 - LAMBDA_2) * estimatedBigramProbability(count, prevId, wordId)));
+            }
+        } else if (prevId >= 0) {
+            int i = bigramIndexOf(prevId, wordId);
+            if (i != -1) {
+                return bigramLogProbabilities.get(i);
+            }
         }
-        return d;
+        return backoffLogProbabilities.get(wordId);
+    }
+
+    /**
+     * @return an upper bound of {@link #logProbability(int, int)} over every previous term: the
+     * highest log probability of the term with the passed id following any other, or negative
+     * infinity for an unknown term
+     */
+    public double maxLogProbability(int wordId) {
+        return wordId < 0 ? Double.NEGATIVE_INFINITY : boundLogProbabilities.get(wordId);
+    }
+
+    /**
+     * Packs the ids of the two terms of a bigram into the key used by the bigram table.
+     */
+    static long bigramKey(int id1, int id2) {
+        return ((long) id1 << 32) | (id2 & 0xffffffffL);
     }
 
+    static int firstId(long bigramKey) {
+        return (int) (bigramKey >>> 32);
+    }
+
+    static int secondId(long bigramKey) {
+        return (int) bigramKey;
+    }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,214 @@
+package edu.stanford.cs276;
+
+import edu.stanford.cs276.util.Pair;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Finds the best corrections of a query without enumerating every combination of word candidates.
+ * The candidates form a lattice over the positions between query words: a candidate of a word goes
+ * from the position before it to the position after it, or past the next words if it merges them
+ * (see {@link Candidate#words}), and a candidate that splits a word holds several terms. A
+ * correction is a path from the first position to the last, scored by the language model (log P(Q))
+ * plus the noisy channel model (log P(R|Q)). The language model only links consecutive terms, so
+ * the best paths are found left to right, keeping the k best partial paths that end at each
+ * candidate (Viterbi).
+ * <p>
+ * At each position, only the beamWidth candidates ending there with the best partial paths are
+ * extended. With a beam at least as wide as the number of candidates ending at a position the
+ * result is exact; the cost of decoding grows linearly with the length of the query either way,
+ * since candidates merge a bounded number of words.
+ */
+public class LatticeDecoder {
+
+    private final LanguageModel lm;
+    private final EditCostModel ecm;
+    private final int beamWidth;
+
+    public LatticeDecoder(LanguageModel lm, EditCostModel ecm, int beamWidth) {
+        this.lm = lm;
+        this.ecm = ecm;
+        this.beamWidth = beamWidth;
+    }
+
+    /**
+     * @param queryWords the words of the query
+     * @param candidates the candidates of each query word
+     * @param k          the number of corrections to return
+     * @return the k best corrections, terms separated by single spaces, along with their scores, in
+     * decreasing score order (the first path found wins ties)
+     */
+    public List<Pair<String, Double>> decode(String[] queryWords, List<List<Candidate>> candidates, int k) {
+        int n = queryWords.length;
+
+        // ending.get(p): the candidates that end at position p, after query word p - 1
+        List<List<Node>> ending = new ArrayList<>();
+        for (int p = 0; p <= n; ++p) {
+            ending.add(new ArrayList<>());
+        }
+
+        for (int p = 0; p < n; ++p) {
+            // beam: only extend the candidates with the best partial paths
+            List<Node> column = ending.get(p);
+            column.sort(Comparator.comparingDouble((Node node) -> node.paths.get(0).score()).reversed());
+            column = column.subList(0, Math.min(beamWidth, column.size()));
+
+            for (Candidate candidate : candidates.get(p)) {
+                if (p + candidate.words > n) {
+                    continue;
+                }
+                Node node = new Node(candidate, String.join(" ", Arrays.copyOfRange(queryWords, p, p + candidate.words)));
+                if (p == 0) {
+                    // first term: unigram probability
+                    double lp = lm.logProbability(node.ids[0]);
+                    offer(node.paths, new Path(null, node, extend(lp, node), node.channel), k);
+                } else {
+                    for (Node previous : column) {
+                        for (Path path : previous.paths) {
+                            double lp = path.lm + lm.logProbability(previous.lastId(), node.ids[0]);
+                            offer(node.paths, new Path(path, node, extend(lp, node), path.channel + node.channel), k);
+                        }
+                    }
+                }
+                ending.get(p + candidate.words).add(node);
+            }
+        }
+
+        List<Node> column = ending.get(n);
+        column.sort(Comparator.comparingDouble((Node node) -> node.paths.get(0).score()).reversed());
+        column = column.subList(0, Math.min(beamWidth, column.size()));
+
+        List<Path> best = new ArrayList<>();
+        for (Node node : column) {
+            for (Path path : node.paths) {
+                offer(best, path, k);
+            }
+        }
+
+        List<Pair<String, Double>> corrections = new ArrayList<>();
+        for (Path path : best) {
+            corrections.add(new Pair<>(path.text(), path.score()));
+        }
+        return corrections;
+    }
+
+    /**
+     * @return true if the passed correction is a path through the lattice of the passed candidates
+     */
+    public static boolean contains(List<List<Candidate>> candidates, String correction) {
+        return contains(candidates, 0, correction, 0);
+    }
+
+    private static boolean contains(List<List<Candidate>> candidates, int column, String correction, int offset) {
+        for (Candidate candidate : candidates.get(column)) {
+            int next = column + candidate.words;
+            if (next > candidates.size() || !correction.startsWith(candidate.word, offset)) {
+                continue;
+            }
+            int end = offset + candidate.word.length();
+            if (next == candidates.size()) {
+                if (end == correction.length()) {
+                    return true;
+                }
+            } else if (end < correction.length() && correction.charAt(end) == ' '
+                    && contains(candidates, next, correction, end + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the distance the channel model is asked to score the passed candidate of the passed
+     * query words at. It is a single edit whatever the distance of the candidate, except for the
+     * candidates that merge words, which are charged every edit: the term that a merge saves the
+     * language model would otherwise make merging cheaper than correcting the words one by one.
+     */
+    static int channelDistance(String queryWords, Candidate candidate) {
+        if (candidate.words > 1) {
+            return candidate.distance;
+        }
+        return queryWords.equals(candidate.word) ? 0 : 1;
+    }
+
+    // keeps the passed path in paths (best ones first) if it is one of the k best ones so far
+    private static void offer(List<Path> paths, Path path, int k) {
+        int i = paths.size();
+        while (i > 0 && path.score() > paths.get(i - 1).score()) {
+            i--;
+        }
+        if (i < k) {
+            paths.add(i, path);
+            if (paths.size() > k) {
+                paths.remove(k);
+            }
+        }
+    }
+
+    // adds the bigrams inside the candidate of the passed node to the language model score p
+    private double extend(double p, Node node) {
+        for (int j = 1; j < node.ids.length; ++j) {
+            p += lm.logProbability(node.ids[j - 1], node.ids[j]);
+        }
+        return p;
+    }
+
+    /**
+     * A candidate of one or more query words, with the best partial paths that end at it.
+     */
+    private class Node {
+        final Candidate candidate;
+        final int[] ids;
+        final double channel;
+
+        // best paths first
+        final List<Path> paths = new ArrayList<>();
+
+        Node(Candidate candidate, String queryWords) {
+            this.candidate = candidate;
+            String[] terms = candidate.word.split(" ");
+            ids = new int[terms.length];
+            for (int j = 0; j < terms.length; ++j) {
+                ids[j] = lm.wordId(terms[j]);
+            }
+            channel = ecm.logEditProbability(queryWords, candidate.word, channelDistance(queryWords, candidate));
+        }
+
+        int lastId() {
+            return ids[ids.length - 1];
+        }
+    }
+
+    /**
+     * A path from the start of the query to the end of its node. The language model and channel scores are
+     * summed separately, in query order.
+     */
+    private static class Path {
+        final Path previous;
+        final Node node;
+        final double lm;
+        final double channel;
+
+        Path(Path previous, Node node, double lm, double channel) {
+            this.previous = previous;
+            this.node = node;
+            this.lm = lm;
+            this.channel = channel;
+        }
+
+        double score() {
+            return lm + channel;
+        }
+
+        String text() {
+            StringBuilder sb = new StringBuilder(node.candidate.word);
+            for (Path p = previous; p != null; p = p.previous) {
+                sb.insert(0, ' ').insert(0, p.node.candidate.word);
+            }
+            return sb.toString();
+        }
+    }
+}
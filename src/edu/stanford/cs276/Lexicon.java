@@ -0,0 +1,286 @@
+package edu.stanford.cs276;
+
+import edu.stanford.cs276.util.ModelFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * The vocabulary of a {@link LanguageModel} stored as a trie, which the candidate generator walks
+ * with a bounded Damerau-Levenshtein automaton: the distance from the query word to every prefix is
+ * computed one trie level at a time, and a subtree is left as soon as none of its words can be within
+ * the bound any more. The terms close to a word are found without building a single edit string.
+ * <p>
+ * The nodes are numbered breadth first, so the children of a node are consecutive, sorted by label,
+ * and the trie is three flat arrays: the label of each node, the first child of each node, and the
+ * term id of each node (-1 when no term ends there).
+ * <p>
+ * The trie is built by BuildModels and saved next to the models (see {@link TermIndex}).
+ */
+public class Lexicon implements TermIndex {
+
+    static final String MODEL_KIND = "lexiconTrie";
+
+    // node -> label of the edge that leads to it (unused for the root, node 0)
+    private ByteBuffer labelBytes;
+    private CharBuffer labels;
+
+    // node -> first child; the children of node n are the nodes firstChild[n] to firstChild[n + 1] - 1
+    private ByteBuffer firstChildBytes;
+    private IntBuffer firstChild;
+
+    // node -> id of the term that ends at it, or -1
+    private ByteBuffer termBytes;
+    private IntBuffer terms;
+
+    private int nodeCount;
+
+    // identifies the language model vocabulary that the term ids refer to
+    private long fingerprint;
+
+    private Lexicon() {
+    }
+
+    /**
+     * Builds the trie of the vocabulary of the passed language model.
+     */
+    public static Lexicon create(LanguageModel lm) {
+        System.out.println("Constructing lexicon trie...");
+        int size = lm.vocabulary.size();
+        String[] words = new String[size];
+        Integer[] order = new Integer[size];
+        for (int id = 0; id < size; ++id) {
+            words[id] = lm.vocabulary.word(id);
+            order[id] = id;
+        }
+        Arrays.sort(order, (a, b) -> words[a].compareTo(words[b]));
+
+        // a node is the range of sorted words that share its prefix; nodes are expanded in the order
+        // they were created, which is breadth first. The words of a range start with its shortest one
+        int capacity = 1024;
+        int[] lo = new int[capacity];
+        int[] hi = new int[capacity];
+        int[] depth = new int[capacity];
+        char[] label = new char[capacity];
+        int[] first = new int[capacity + 1];
+        int[] term = new int[capacity];
+        lo[0] = 0;
+        hi[0] = size;
+        int count = 1;
+
+        for (int n = 0; n < count; ++n) {
+            int i = lo[n];
+            int d = depth[n];
+            term[n] = -1;
+            if (i < hi[n] && words[order[i]].length() == d) {
+                term[n] = order[i++];
+            }
+            first[n] = count;
+            while (i < hi[n]) {
+                char c = words[order[i]].charAt(d);
+                int j = i + 1;
+                while (j < hi[n] && words[order[j]].charAt(d) == c) {
+                    j++;
+                }
+                if (count == capacity) {
+                    capacity *= 2;
+                    lo = Arrays.copyOf(lo, capacity);
+                    hi = Arrays.copyOf(hi, capacity);
+                    depth = Arrays.copyOf(depth, capacity);
+                    label = Arrays.copyOf(label, capacity);
+                    first = Arrays.copyOf(first, capacity + 1);
+                    term = Arrays.copyOf(term, capacity);
+                }
+                lo[count] = i;
+                hi[count] = j;
+                depth[count] = d + 1;
+                label[count] = c;
+                count++;
+                i = j;
+            }
+        }
+        first[count] = count;
+
+        Lexicon lexicon = new Lexicon();
+        lexicon.nodeCount = count;
+        lexicon.labelBytes = ModelFile.allocate(count * 2);
+        lexicon.labels = lexicon.labelBytes.asCharBuffer();
+        lexicon.labels.put(label, 0, count);
+        lexicon.firstChildBytes = ModelFile.allocate((count + 1) * 4);
+        lexicon.firstChild = lexicon.firstChildBytes.asIntBuffer();
+        lexicon.firstChild.put(first, 0, count + 1);
+        lexicon.termBytes = ModelFile.allocate(count * 4);
+        lexicon.terms = lexicon.termBytes.asIntBuffer();
+        lexicon.terms.put(term, 0, count);
+        lexicon.fingerprint = lm.vocabularyChecksum();
+        System.out.println("Done.");
+        return lexicon;
+    }
+
+    /**
+     * Reads a trie saved by {@link #save()}, provided that it was built for the passed language model
+     * (see {@link TermIndex#load(LanguageModel)}).
+     *
+     * @return the trie, or null if it belongs to another language model
+     */
+    static Lexicon read(ModelFile file, LanguageModel lm) throws IOException {
+        Lexicon lexicon = new Lexicon();
+        lexicon.labelBytes = file.section("trie.labels");
+        lexicon.labels = lexicon.labelBytes.asCharBuffer();
+        lexicon.firstChildBytes = file.section("trie.children");
+        lexicon.firstChild = lexicon.firstChildBytes.asIntBuffer();
+        lexicon.termBytes = file.section("trie.terms");
+        lexicon.terms = lexicon.termBytes.asIntBuffer();
+        lexicon.nodeCount = lexicon.terms.limit();
+        lexicon.fingerprint = file.section("fingerprint").asLongBuffer().get(0);
+        return lexicon.fingerprint == lm.vocabularyChecksum() ? lexicon : null;
+    }
+
+    @Override
+    public void save() throws IOException {
+        ModelFile.Writer writer = new ModelFile.Writer(MODEL_KIND);
+        writer.add("trie.labels", labelBytes.duplicate().position(0).limit(nodeCount * 2));
+        writer.add("trie.children", firstChildBytes.duplicate().position(0).limit((nodeCount + 1) * 4));
+        writer.add("trie.terms", termBytes.duplicate().position(0).limit(nodeCount * 4));
+        ByteBuffer fingerprintBytes = ModelFile.allocate(8);
+        LongBuffer fingerprintView = fingerprintBytes.asLongBuffer();
+        fingerprintView.put(0, fingerprint);
+        writer.add("fingerprint", fingerprintBytes);
+        writer.write(Config.candidateGenFile);
+    }
+
+    /**
+     * Finds the terms within Damerau-Levenshtein distance maxDistance of the passed word. This
+     * distance allows a string to be edited more than once, so that it never exceeds the number of
+     * edits of any kind that turn one string into the other: every term that the candidate generator
+     * can reach with that many edits is returned, and the caller filters out the ones its edits
+     * cannot reach.
+     *
+     * @return sorted, distinct term ids
+     */
+    @Override
+    public int[] lookup(String w, int maxDistance) {
+        Walk walk = new Walk(w, maxDistance);
+        walk.visit(0, 0);
+        int[] ids = Arrays.copyOf(walk.found, walk.foundCount);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * A depth first walk of the trie that keeps one row of the distance matrix per level of the
+     * current path: row i holds the distances from the prefix of length i to every prefix of w.
+     */
+    private class Walk {
+        final char[] chars;
+        final int max;
+        final int far;
+
+        // rows[i][j]: distance between the path prefix of length i and the first j characters of w, at most far
+        final int[][] rows;
+        final int[] rowMin;
+        // path[i]: label of the node at depth i
+        final char[] path;
+
+        int[] found = new int[16];
+        int foundCount = 0;
+
+        Walk(String w, int max) {
+            chars = w.toCharArray();
+            this.max = max;
+            far = max + 1;
+            // no prefix longer than w by more than max can be within the bound
+            int depth = w.length() + max + 1;
+            rows = new int[depth][w.length() + 1];
+            rowMin = new int[depth];
+            path = new char[depth];
+            for (int j = 0; j <= w.length(); ++j) {
+                rows[0][j] = Math.min(j, far);
+            }
+            rowMin[0] = 0;
+        }
+
+        void visit(int node, int i) {
+            int m = chars.length;
+            if (rows[i][m] <= max && terms.get(node) >= 0) {
+                if (foundCount == found.length) {
+                    found = Arrays.copyOf(found, foundCount * 2);
+                }
+                found[foundCount++] = terms.get(node);
+            }
+            if (i + 1 == rows.length) {
+                return;
+            }
+
+            int end = firstChild.get(node + 1);
+            for (int child = firstChild.get(node); child < end; ++child) {
+                char c = labels.get(child);
+                path[i + 1] = c;
+                if (fillRow(i + 1, c)) {
+                    visit(child, i + 1);
+                }
+            }
+        }
+
+        // computes row i, whose last path character is c; false if no extension of the path can be within the bound
+        boolean fillRow(int i, char c) {
+            int m = chars.length;
+            int[] row = rows[i];
+            int[] previous = rows[i - 1];
+            row[0] = Math.min(i, far);
+            int min = row[0];
+            for (int j = 1; j <= m; ++j) {
+                char t = chars[j - 1];
+                int d;
+                if (c == t) {
+                    // nothing beats the diagonal when the characters match
+                    d = previous[j - 1];
+                } else {
+                    d = Math.min(previous[j - 1], previous[j]) + 1;
+                    d = Math.min(d, row[j - 1] + 1);
+                    if (d > 1) {
+                        d = Math.min(d, transposition(i, j, c, t));
+                    }
+                    d = Math.min(d, far);
+                }
+                row[j] = d;
+                min = Math.min(min, d);
+            }
+            rowMin[i] = min;
+
+            // a path through the matrix reaches the rows below i from row i, or jumps over it with a
+            // transposition from row r < i, which costs at least i - r more
+            for (int r = Math.max(0, i - max); r <= i; ++r) {
+                if (rowMin[r] + (i - r) <= max) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // cost of reaching cell (i, j) with a transposition, possibly with characters inserted or
+        // deleted in between: from the last occurrence k of t earlier on the path and l of c earlier
+        // in w, looking no further than max positions back
+        int transposition(int i, int j, char c, char t) {
+            int k = i - 1;
+            while (k >= 1 && k >= i - max && path[k] != t) {
+                k--;
+            }
+            if (k < 1 || k < i - max) {
+                return far;
+            }
+            int l = j - 1;
+            while (l >= 1 && l >= j - max && chars[l - 1] != c) {
+                l--;
+            }
+            if (l < 1 || l < j - max) {
+                return far;
+            }
+            return rows[k - 1][l - 1] + (i - k - 1) + 1 + (j - l - 1);
+        }
+    }
+}
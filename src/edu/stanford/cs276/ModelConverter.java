@@ -0,0 +1,137 @@
+package edu.stanford.cs276;
+
+import edu.stanford.cs276.util.Dictionary;
+import edu.stanford.cs276.util.ModelFile;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Converts models that older versions of BuildModels saved with Java serialization into the binary
+ * model format read by {@link LanguageModel#load()} and {@link NoisyChannelModel#load()}.
+ * <p>
+ * Each file is converted in place; the serialized original is kept next to it with a ".ser" suffix.
+ * Files that are already in the binary format are left untouched.
+ */
+public class ModelConverter {
+
+    public static void main(String[] args) throws Exception {
+
+        String languageModelFile = Config.languageModelFile;
+        String noisyChannelFile = Config.noisyChannelFile;
+        if (args.length == 2) {
+            languageModelFile = args[0];
+            noisyChannelFile = args[1];
+        } else if (args.length != 0) {
+            System.err.println(
+                    "Invalid arguments.  Argument count must be 0 or 2 \n"
+                            + "ModelConverter \n"
+                            + "ModelConverter <language model file> <noisy channel file> \n");
+            return;
+        }
+
+        if (needsConversion(languageModelFile)) {
+            LegacyLanguageModel legacy = (LegacyLanguageModel) readLegacy(languageModelFile);
+            LanguageModel lm = LanguageModel.fromCounts(legacy.unigrams.map(), legacy.unigrams.termCount(), legacy.bigrams.map());
+            backUp(languageModelFile);
+            lm.write(languageModelFile);
+            ModelFile.open(languageModelFile, LanguageModel.MODEL_KIND).verify();
+            System.out.println("Converted " + languageModelFile);
+        }
+
+        if (needsConversion(noisyChannelFile)) {
+            LegacyNoisyChannelModel legacy = (LegacyNoisyChannelModel) readLegacy(noisyChannelFile);
+            NoisyChannelModel ncm = new NoisyChannelModel(EmpiricalCostModel.fromLegacyCounts(
+                    legacy.empiricalCostModel.errorCounts, legacy.empiricalCostModel.kgramCounts));
+            backUp(noisyChannelFile);
+            ncm.write(noisyChannelFile);
+            ModelFile.open(noisyChannelFile, NoisyChannelModel.MODEL_KIND).verify();
+            System.out.println("Converted " + noisyChannelFile);
+        }
+    }
+
+    private static boolean needsConversion(String path) throws IOException {
+        if (!new File(path).isFile()) {
+            System.out.println("Skipping " + path + ": no such file");
+            return false;
+        }
+        if (ModelFile.isModelFile(path)) {
+            System.out.println("Skipping " + path + ": already in the binary model format");
+            return false;
+        }
+        return true;
+    }
+
+    private static Object readLegacy(String path) throws Exception {
+        try (LegacyObjectInputStream in = new LegacyObjectInputStream(new FileInputStream(path))) {
+            return in.readObject();
+        }
+    }
+
+    private static void backUp(String path) throws IOException {
+        File backup = new File(path + ".ser");
+        if (!new File(path).renameTo(backup)) {
+            throw new IOException("Unable to rename " + path + " to " + backup);
+        }
+    }
+
+    /**
+     * Reads the old serialized models into the Legacy* classes below, which have the fields the model
+     * classes had when those files were written.
+     */
+    private static class LegacyObjectInputStream extends ObjectInputStream {
+
+        private static final Map<String, Class<?>> LEGACY_CLASSES = new HashMap<>();
+
+        static {
+            LEGACY_CLASSES.put("edu.stanford.cs276.LanguageModel", LegacyLanguageModel.class);
+            LEGACY_CLASSES.put("edu.stanford.cs276.NoisyChannelModel", LegacyNoisyChannelModel.class);
+            LEGACY_CLASSES.put("edu.stanford.cs276.EmpiricalCostModel", LegacyEmpiricalCostModel.class);
+            LEGACY_CLASSES.put("edu.stanford.cs276.UniformCostModel", LegacyUniformCostModel.class);
+        }
+
+        LegacyObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            ObjectStreamClass descriptor = super.readClassDescriptor();
+            Class<?> legacy = LEGACY_CLASSES.get(descriptor.getName());
+            return legacy == null ? descriptor : ObjectStreamClass.lookup(legacy);
+        }
+    }
+
+    private static class LegacyLanguageModel implements Serializable {
+        private static final long serialVersionUID = 1L;
+        Dictionary unigrams;
+        Dictionary bigrams;
+        int termCounter;
+        Map<String, Double> unigramProbabilities;
+        Map<String, Double> bigramProbabilities;
+    }
+
+    private static class LegacyNoisyChannelModel implements Serializable {
+        private static final long serialVersionUID = 1L;
+        Object ecm_;
+        LegacyEmpiricalCostModel empiricalCostModel;
+        LegacyUniformCostModel uniformCostModel;
+    }
+
+    private static class LegacyEmpiricalCostModel implements Serializable {
+        private static final long serialVersionUID = 1L;
+        Map<String, Integer> errorCounts;
+        Map<String, Integer> kgramCounts;
+    }
+
+    private static class LegacyUniformCostModel implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -1,10 +1,8 @@
 package edu.stanford.cs276;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
+import edu.stanford.cs276.util.ModelFile;
+
+import java.io.IOException;
 
 /**
  * NoisyChannelModel class constructs a channel model (which is a model of errors that
@@ -15,15 +13,21 @@ import java.io.Serializable;
  * This class uses the Singleton design pattern
  * (https://en.wikipedia.org/wiki/Singleton_pattern).
  */
-public class NoisyChannelModel implements Serializable {
+public class NoisyChannelModel {
 
-    private static final long serialVersionUID = 1L;
+    static final String MODEL_KIND = "noisyChannel";
     private static NoisyChannelModel ncm_ = null;
     EditCostModel ecm_ = null;
 
     EmpiricalCostModel empiricalCostModel = null;
     UniformCostModel uniformCostModel = null;
 
+    // the probability type set last, "uniform" or "empirical"
+    private String probabilityType;
+
+    // identifies the model file this model was read from (see ModelFile#fingerprint), 0 for a model built in this process
+    private long fingerprint;
+
   /*
    * Feel free to add more members here.
    * Your code here ...
@@ -46,6 +50,11 @@ public class NoisyChannelModel implements Serializable {
         uniformCostModel = new UniformCostModel();
     }
 
+    NoisyChannelModel(EmpiricalCostModel empiricalCostModel) {
+        this.empiricalCostModel = empiricalCostModel;
+        this.uniformCostModel = new UniformCostModel();
+    }
+
     /**
      * Creates a new NoisyChannelModel object from the query corpus. This method should be used to
      * create a new object rather than calling the constructor directly from outside this class
@@ -64,25 +73,33 @@ public class NoisyChannelModel implements Serializable {
         try {
             // Don't load from disk if it's already been loaded.
             if (ncm_ == null) {
-                FileInputStream fiA = new FileInputStream(Config.noisyChannelFile);
-                ObjectInputStream oisA = new ObjectInputStream(fiA);
-                ncm_ = (NoisyChannelModel) oisA.readObject();
-                oisA.close();
+                ncm_ = read(Config.noisyChannelFile);
             }
         } catch (Exception e) {
-            throw new Exception("Unable to load noisy channel model.  You may not have run buildmodels.sh!");
+            throw new Exception("Unable to load noisy channel model.  You may not have run buildmodels.sh, or the model "
+                    + "may predate the binary model format (see ModelConverter): " + e.getMessage());
         }
         return ncm_;
     }
 
+    static NoisyChannelModel read(String path) throws IOException {
+        ModelFile file = ModelFile.open(path, MODEL_KIND);
+        NoisyChannelModel nsm = new NoisyChannelModel(EmpiricalCostModel.read(file));
+        nsm.fingerprint = file.fingerprint();
+        return nsm;
+    }
+
     /**
      * Saves the object (and all associated data, e.g. EditCostModel) to disk
      */
     public void save() throws Exception {
-        FileOutputStream saveFile = new FileOutputStream(Config.noisyChannelFile);
-        ObjectOutputStream save = new ObjectOutputStream(saveFile);
-        save.writeObject(this);
-        save.close();
+        write(Config.noisyChannelFile);
+    }
+
+    void write(String path) throws IOException {
+        ModelFile.Writer writer = new ModelFile.Writer(MODEL_KIND);
+        empiricalCostModel.write(writer);
+        writer.write(path);
     }
 
     /**
@@ -97,5 +114,20 @@ public class NoisyChannelModel implements Serializable {
             throw new Exception("Invalid noisy channel probability type: "
                     + "must be one of <uniform | empirical>");
         }
+        probabilityType = type;
+    }
+
+    /**
+     * @return the probability type set last, "uniform" or "empirical", or null if none was set
+     */
+    public String probabilityType() {
+        return probabilityType;
+    }
+
+    /**
+     * @return a fingerprint of the model file this model was read from, or 0 for a model built in this process
+     */
+    public long fingerprint() {
+        return fingerprint;
     }
 }
@@ -1,30 +1,37 @@
 package edu.stanford.cs276;
 
-import edu.stanford.cs276.util.Assert;
+import edu.stanford.cs276.util.LineWriter;
 import edu.stanford.cs276.util.Logger;
-import edu.stanford.cs276.util.Pair;
+import edu.stanford.cs276.util.Metrics;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.Deque;
 import java.util.List;
-import java.util.Set;
-
-import static edu.stanford.cs276.Config.DIAMOND;
-import static edu.stanford.cs276.Config.LAMBDA_2;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 
 
 public class RunCorrector {
 
+    // queries read ahead of the one being written, per worker thread
+    private static final int PENDING_QUERIES_PER_THREAD = 256;
+
+    // in streaming mode, corrections are flushed when this many characters are buffered, or after this long
+    private static final int STREAM_BUFFER_CHARS = 1 << 16;
+    private static final long STREAM_FLUSH_MILLIS = 200;
+
     public static LanguageModel languageModel;
     public static NoisyChannelModel nsm;
 
-    private static int queryCounter = 0;
-    private static int successCounter = 0;
-
 
     public static void main(String[] args) throws Exception {
 
@@ -35,11 +42,39 @@ public class RunCorrector {
         String extra = null;
         BufferedReader goldFileReader = null;
 
-        if (args.length == 2) {
+        // number of threads correcting queries
+        int threads = 1;
+        // whether to read queries from stdin and write only the corrections to stdout
+        boolean stream = false;
+        // seconds between dumps of the metrics to stderr, 0 for none
+        long metricsSeconds = 0;
+        CorrectionCache.Options cacheOptions = new CorrectionCache.Options();
+        int consumed = 0;
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; ++i) {
+            if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("--stream".equals(args[i])) {
+                stream = true;
+            } else if ("--gold".equals(args[i]) && i + 1 < args.length) {
+                goldFilePath = args[++i];
+            } else if ("--metrics".equals(args[i]) && i + 1 < args.length) {
+                metricsSeconds = Long.parseLong(args[++i]);
+            } else if ((consumed = cacheOptions.parse(args, i)) > 0) {
+                i += consumed - 1;
+            } else {
+                positional.add(args[i]);
+            }
+        }
+        args = positional.toArray(new String[0]);
+
+        if (stream && args.length == 1) {
+            uniformOrEmpirical = args[0];
+        } else if (!stream && args.length == 2) {
             // Default: run without extra credit code or gold data comparison
             uniformOrEmpirical = args[0];
             queryFilePath = args[1];
-        } else if (args.length == 3) {
+        } else if (!stream && args.length == 3) {
             uniformOrEmpirical = args[0];
             queryFilePath = args[1];
             if (args[2].equals("extra")) {
@@ -47,7 +82,7 @@ public class RunCorrector {
             } else {
                 goldFilePath = args[2];
             }
-        } else if (args.length == 4) {
+        } else if (!stream && args.length == 4) {
             uniformOrEmpirical = args[0];
             queryFilePath = args[1];
             extra = args[2];
@@ -59,10 +94,17 @@ public class RunCorrector {
                             + "./runcorrector <uniform | empirical> <query file> <gold file> \n"
                             + "./runcorrector <uniform | empirical> <query file> <extra> \n"
                             + "./runcorrector <uniform | empirical> <query file> <extra> <gold file> \n"
+                            + "./runcorrector --threads <N> <uniform | empirical> <query file> ... \n"
+                            + "./runcorrector --stream [--threads <N>] [--gold <gold file>] <uniform | empirical> < queries > corrections \n"
+                            + "./runcorrector --metrics <seconds> ... (dumps the metrics to stderr periodically and at the end) \n"
+                            + "./runcorrector " + CorrectionCache.Options.USAGE + " ... (caches the corrections of whole queries) \n"
                             + "SAMPLE: ./runcorrector empirical data/queries.txt \n"
                             + "SAMPLE: ./runcorrector empirical data/queries.txt data/gold.txt \n"
                             + "SAMPLE: ./runcorrector empirical data/queries.txt extra \n"
-                            + "SAMPLE: ./runcorrector empirical data/queries.txt extra data/gold.txt \n");
+                            + "SAMPLE: ./runcorrector empirical data/queries.txt extra data/gold.txt \n"
+                            + "SAMPLE: ./runcorrector --threads 8 empirical data/queries.txt \n"
+                            + "SAMPLE: ./runcorrector --stream --threads 8 empirical < data/queries.txt \n"
+                            + "SAMPLE: ./runcorrector --stream --cache 100000 --cache-file corrections.cache empirical < data/queries.txt \n");
             return;
         }
 
@@ -73,95 +115,83 @@ public class RunCorrector {
         // Load models from disk
         languageModel = LanguageModel.load();
         nsm = NoisyChannelModel.load();
-        BufferedReader queriesFileReader = new BufferedReader(new FileReader(new File(queryFilePath)));
         nsm.setProbabilityType(uniformOrEmpirical);
+        Corrector corrector = new Corrector(languageModel, nsm);
+        CorrectionCache cache = cacheOptions.create(corrector);
 
-        String query = null;
-
-    /*
-     * Each line in the file represents one query. We loop over each query and find
-     * the most likely correction
-     */
-        while ((query = queriesFileReader.readLine()) != null) {
-            queryCounter++;
-            query = query.trim();
-            String correctedQuery = null;
-            /*
-               * Your code here: currently the correctQuery and original query are the same
-               * Complete this implementation so that the spell corrector corrects the
-               * (possibly) misspelled query
-               */
-
-            Set<String> candidates = CandidateGenerator.get().getCandidates(nsm, languageModel, query);
-
-            Assert.check(candidates.size()>0, "No candidates found for the query: " + query);
-
-            // score candidates using the language model and the noisy channel model
-            // score = P(Q|R) = P(R|Q) x P(Q) = (noisy channel probability) x (language model probability)
-
-            List<Pair<String, Double>> scores = new ArrayList<>();
-
-            for (String candidateQuery : candidates) {
-
-                double languageModelProbability = getLanguageModelProbability(candidateQuery.replace(DIAMOND, " "));
-
-                // compute the edit probability
-                double editProbability = getNoisyChannelProbability(query, candidateQuery);
-
-                // compute the language model probability
-                double score = languageModelProbability + editProbability;
-
-                // update the scores
-                scores.add(new Pair(candidateQuery, score));
+        if (metricsSeconds > 0) {
+            Metrics.dumpEvery(metricsSeconds * 1000, System.err);
+        }
 
+        if (stream) {
+            BufferedReader input = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), STREAM_BUFFER_CHARS);
+            stream(corrector, threads, input, goldFileReader);
+            cacheOptions.save(cache);
+            if (metricsSeconds > 0) {
+                Metrics.dump(System.err);
             }
+            return;
+        }
 
-            Collections.sort(scores, (p1, p2) -> p2.getSecond().compareTo(p1.getSecond()));
+        BufferedReader queriesFileReader = new BufferedReader(new FileReader(new File(queryFilePath)));
 
-            correctedQuery = scores.get(0).getFirst().replace(DIAMOND, " ");
-            Logger.print(true, "o: " + query);
-            Logger.print(true, "c: " + correctedQuery);
+        int queryCounter = 0;
+        int successCounter = 0;
 
-            if ("extra".equals(extra)) {
-            /*
-             * If you are going to implement something regarding to running the corrector,
-             * you can add code here. Feel free to move this code block to wherever
-             * you think is appropriate. But make sure if you add "extra" parameter,
-             * it will run code for your extra credit and it will run you basic
-             * implementations without the "extra" parameter.
-             */
-            }
+    /*
+     * Each line in the file represents one query. We loop over each query and find
+     * the most likely correction
+     */
+        try (Pipeline pipeline = new Pipeline(corrector, threads, queriesFileReader)) {
+            Corrector.Correction correction = null;
+            while ((correction = pipeline.next()) != null) {
+                queryCounter++;
+                String correctedQuery = correction.correctedQuery;
+                Logger.print(true, "o: " + correction.query);
+                Logger.print(true, "c: " + correctedQuery);
+                Logger.print(false, "expansions: " + correction.expansions);
+
+                if ("extra".equals(extra)) {
+                /*
+                 * If you are going to implement something regarding to running the corrector,
+                 * you can add code here. Feel free to move this code block to wherever
+                 * you think is appropriate. But make sure if you add "extra" parameter,
+                 * it will run code for your extra credit and it will run you basic
+                 * implementations without the "extra" parameter.
+                 */
+                }
 
-            // If a gold file was provided, compare our correction to the gold correction
-            // and output the running accuracy
-            if (goldFileReader != null) {
-                String goldQuery = goldFileReader.readLine();
-                Logger.print(true, "g: " + goldQuery );
-                if (goldQuery.equals(correctedQuery)) {
-                    successCounter++;
-                } else {
-                    if (wasCandidateGenerated(candidates, goldQuery)) {
-                        Logger.print(true, "::: rank problem");
+                // If a gold file was provided, compare our correction to the gold correction
+                // and output the running accuracy
+                if (goldFileReader != null) {
+                    String goldQuery = goldFileReader.readLine();
+                    Logger.print(true, "g: " + goldQuery );
+                    if (goldQuery.equals(correctedQuery)) {
+                        successCounter++;
                     } else {
-                        Logger.print(true, "=== candidate generation problem");
+                        if (LatticeDecoder.contains(corrector.candidates(correction), goldQuery)) {
+                            Logger.print(true, "::: rank problem");
+                        } else {
+                            Logger.print(true, "=== candidate generation problem");
+                        }
                     }
-                }
 
-            /*
-             * You can do any bookkeeping you wish here - track accuracy, track where your solution
-             * diverges from the gold file, what type of errors are more common etc. This might
-             * help you improve your candidate generation/scoring steps
-             */
-            }
+                /*
+                 * You can do any bookkeeping you wish here - track accuracy, track where your solution
+                 * diverges from the gold file, what type of errors are more common etc. This might
+                 * help you improve your candidate generation/scoring steps
+                 */
+                }
 
-            Logger.print(true, "--------------");
+                Logger.print(true, "--------------");
 
-          /*
-           * Output the corrected query.
-           * IMPORTANT: In your final submission DO NOT add any additional print statements as
-           * this will interfere with the autograder
-           */
-            System.out.println(correctedQuery);
+              /*
+               * Output the corrected query.
+               * IMPORTANT: In your final submission DO NOT add any additional print statements as
+               * this will interfere with the autograder
+               */
+                System.out.println(correctedQuery);
+            }
         }
 
         double successRate = (successCounter/(double)queryCounter)*100;
@@ -169,74 +199,97 @@ public class RunCorrector {
         Logger.print(true, "#Queries: " + queryCounter + ", #Correct: " + successCounter);
 
         queriesFileReader.close();
+        if (cache != null) {
+            Logger.print(true, "Correction cache: " + cache.stats());
+        }
+        cacheOptions.save(cache);
+
+        if (metricsSeconds > 0) {
+            Metrics.dump(System.err);
+        }
     }
 
     /**
-     * @param w1 a valid vocabulary term
-     * @param w2 a valid vocabulary term
-     * @return   the edit distance from w1 to w2, that was previously calculated by the candidates generator
+     * Streaming mode: corrects the queries read from input, and writes only the corrections to
+     * stdout, through a buffer. If a gold reader is passed, the corrections that differ from the
+     * gold ones, and the final accuracy, are reported on stderr.
      */
-    private static int getEditDistance(String w1, String w2) {
-        int d = -1;
-        try {
-            d = CandidateGenerator.get().editDistances.get(w1).get(w2);
-        } catch (Exception ex) {
-            ex.printStackTrace();
+    private static void stream(Corrector corrector, int threads, BufferedReader input, BufferedReader goldReader) throws Exception {
+        int queryCounter = 0;
+        int successCounter = 0;
+        try (Pipeline pipeline = new Pipeline(corrector, threads, input);
+             LineWriter out = new LineWriter(new FileOutputStream(FileDescriptor.out), STREAM_BUFFER_CHARS, STREAM_FLUSH_MILLIS)) {
+            Corrector.Correction correction = null;
+            while ((correction = pipeline.next()) != null) {
+                queryCounter++;
+                out.writeLine(correction.correctedQuery);
+
+                if (goldReader != null) {
+                    String goldQuery = goldReader.readLine();
+                    if (correction.correctedQuery.equals(goldQuery)) {
+                        successCounter++;
+                    } else {
+                        String problem = goldQuery != null && LatticeDecoder.contains(corrector.candidates(correction), goldQuery) ? "rank" : "candidates";
+                        System.err.println(queryCounter + "\t" + problem + "\t" + correction.query + "\t" + correction.correctedQuery + "\t" + goldQuery);
+                    }
+                }
+            }
         }
-        Assert.check(d!=-1, "Edit distance cannot be -1");
-        return d;
-    }
-
-
-    private static double getLanguageModelProbability(String candidate) {
-        String[] cArr = candidate.split("\\s+");
-        double p = Math.log(languageModel.getUnigramProbability(cArr[0]));
-
-        for (int i=1; i<cArr.length; ++i) {
-            String w1 = cArr[i-1];
-            String w2 = cArr[i];
-            String bigram = w1 + " " + w2;
 
-            // score = P(Q|R) = P(R|Q) x P(Q) = P(R|Q) x [P(uni) x P(w2|w1) x P(w3|w2) x .... P(biN)]
-
-            // we use linear interpolation to bypass the fact that a bigram might not have occurred in the
-            // corpus, and thus its probability will be zero
-            double biProb = (languageModel.getBigramProbability(bigram));
-            double uniProb = (languageModel.getUnigramProbability((w2)));
-
-            double pBigram = Math.log( (LAMBDA_2 * uniProb) + ((1- LAMBDA_2)*biProb) );
-
-            p += pBigram;
+        if (goldReader != null) {
+            System.err.println("#Queries: " + queryCounter + ", #Correct: " + successCounter
+                    + ", Success Rate: %" + (successCounter/(double)queryCounter)*100);
         }
-
-        return p;//MU*p;
     }
 
-    private static double getNoisyChannelProbability(String query, String candidate) {
-        String[] guessedWords = candidate.split(DIAMOND);
-        String[] queryWords = query.split("\\s+");
-
-        Assert.check(guessedWords.length == queryWords.length, "Length mismatch::: query: "+queryWords.toString()+" -- candidate: "+guessedWords.toString());
-
-        double p = 0;
-        for (int i=0; i<guessedWords.length; ++i) {
-            String g = guessedWords[i];
-            String q = queryWords[i];
-            int dist = q.equals(g) ? 0 : 1;
-            p += Math.log(nsm.ecm_.editProbability(q, g, dist));
+    /**
+     * Reads queries and corrects them, on a pool of threads when there are several, while keeping a
+     * bounded number of queries ahead of the correction being returned. Corrections are returned in
+     * input order.
+     */
+    private static class Pipeline implements AutoCloseable {
+        private final Corrector corrector;
+        private final int threads;
+        private final BufferedReader input;
+        private final ExecutorService pool;
+        private final Deque<FutureTask<Corrector.Correction>> pending = new ArrayDeque<>();
+
+        Pipeline(Corrector corrector, int threads, BufferedReader input) {
+            this.corrector = corrector;
+            this.threads = threads;
+            this.input = input;
+            // the corrector is safe to share between threads
+            this.pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
         }
 
-        return p;
-    }
-
-    private static boolean wasCandidateGenerated(Set<String> candidates, String c) {
-
-        Set<String> candidatesWithoutDiamonds = new HashSet<>();
-        for (String s : candidates) {
-            candidatesWithoutDiamonds.add(s.replace(DIAMOND, " "));
+        /**
+         * @return the correction of the next query, or null after the last one
+         */
+        Corrector.Correction next() throws Exception {
+            String query = null;
+            while (pending.size() < threads * PENDING_QUERIES_PER_THREAD && (query = input.readLine()) != null) {
+                String q = query.trim();
+                FutureTask<Corrector.Correction> task = new FutureTask<>(() -> corrector.correct(q));
+                if (pool == null) {
+                    task.run();
+                } else {
+                    pool.execute(task);
+                }
+                pending.add(task);
+                if (pool == null) {
+                    // nothing to gain from reading ahead
+                    break;
+                }
+            }
+            return pending.isEmpty() ? null : pending.remove().get();
         }
 
-        return candidatesWithoutDiamonds.contains(c);
+        @Override
+        public void close() {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,344 @@
+package edu.stanford.cs276;
+
+import edu.stanford.cs276.util.Assert;
+import edu.stanford.cs276.util.Histogram;
+import edu.stanford.cs276.util.Json;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evaluates the corrector on queries with their gold corrections. It reports the accuracy, with the
+ * errors broken down as RunCorrector labels them: a rank problem when the gold correction was among
+ * the candidates but another one scored higher, a candidate generation problem when it was not. It
+ * also reports speed: queries per second, latency percentiles, bytes allocated per query and
+ * candidates per query word.
+ * <p>
+ * The queries are corrected a few times to warm up the JVM, then measured over a few more passes,
+ * one at a time on the main thread, so that latencies and allocations are those of one query. The
+ * candidate generator's cache of word alternatives is cleared before each query, as it would
+ * otherwise hold every word of the query file after the first pass and leave candidate generation
+ * out of the measures; with --warm-cache, it is kept, as in a server that sees the same words. The
+ * report is written as JSON. Two reports can be compared: the comparison lists the queries that
+ * one run corrects and the other does not, and exits with status 1 if accuracy dropped, or speed or
+ * allocation got worse by more than a tolerance, so that it can gate a deploy.
+ */
+public class RunEvaluation {
+
+    private static final int DEFAULT_WARMUP_PASSES = 5;
+    private static final int DEFAULT_PASSES = 5;
+
+    // percentage by which speed and allocation may get worse before a comparison fails; single runs
+    // of a few hundred queries vary by about as much
+    private static final double DEFAULT_TOLERANCE = 20;
+
+    public static void main(String[] args) throws Exception {
+
+        int warmupPasses = DEFAULT_WARMUP_PASSES;
+        int passes = DEFAULT_PASSES;
+        double tolerance = DEFAULT_TOLERANCE;
+        String outputPath = null;
+        boolean compare = false;
+        boolean warmCache = false;
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; ++i) {
+            if ("--warmup".equals(args[i]) && i + 1 < args.length) {
+                warmupPasses = Integer.parseInt(args[++i]);
+            } else if ("--passes".equals(args[i]) && i + 1 < args.length) {
+                passes = Integer.parseInt(args[++i]);
+            } else if ("--out".equals(args[i]) && i + 1 < args.length) {
+                outputPath = args[++i];
+            } else if ("--tolerance".equals(args[i]) && i + 1 < args.length) {
+                tolerance = Double.parseDouble(args[++i]);
+            } else if ("--warm-cache".equals(args[i])) {
+                warmCache = true;
+            } else if ("--compare".equals(args[i])) {
+                compare = true;
+            } else {
+                positional.add(args[i]);
+            }
+        }
+
+        if (compare && positional.size() == 2) {
+            System.exit(compare(readReport(positional.get(0)), readReport(positional.get(1)), tolerance) ? 0 : 1);
+        } else if (!compare && positional.size() == 3 && passes > 0) {
+            Map<String, Object> report = evaluate(positional.get(0), positional.get(1), positional.get(2), warmupPasses, passes, warmCache);
+            String json = Json.write(report);
+            if (outputPath == null) {
+                System.out.print(json);
+            } else {
+                Files.write(Paths.get(outputPath), json.getBytes(StandardCharsets.UTF_8));
+            }
+        } else {
+            System.err.println(
+                    "Invalid arguments. \n"
+                            + "RunEvaluation [--warmup <passes>] [--passes <passes>] [--warm-cache] [--out <report file>] <uniform | empirical> <query file> <gold file> \n"
+                            + "RunEvaluation --compare [--tolerance <percent>] <base report file> <new report file> \n"
+                            + "SAMPLE: RunEvaluation --out base.json empirical data/queries.txt data/gold.txt \n"
+                            + "SAMPLE: RunEvaluation --compare base.json new.json \n");
+        }
+    }
+
+    /**
+     * Corrects the queries of queryFilePath warmupPasses times, then passes times while measuring
+     * them, and returns the report. Accuracy is that of the first measured pass.
+     *
+     * @param warmCache false to clear the cache of word alternatives before each query, so that the
+     * measures include candidate generation
+     */
+    static Map<String, Object> evaluate(String uniformOrEmpirical, String queryFilePath, String goldFilePath,
+                                        int warmupPasses, int passes, boolean warmCache) throws Exception {
+        List<String> queries = readLines(queryFilePath);
+        List<String> golds = readLines(goldFilePath);
+        Assert.check(queries.size() == golds.size(), queryFilePath + " has " + queries.size()
+                + " queries, but " + goldFilePath + " has " + golds.size() + " corrections");
+
+        LanguageModel languageModel = LanguageModel.load();
+        NoisyChannelModel nsm = NoisyChannelModel.load();
+        nsm.setProbabilityType(uniformOrEmpirical);
+        Corrector corrector = new Corrector(languageModel, nsm);
+        CandidateGenerator cg = CandidateGenerator.get();
+
+        for (int pass = 0; pass < warmupPasses; ++pass) {
+            for (String query : queries) {
+                if (!warmCache) {
+                    cg.clearCache();
+                }
+                corrector.correct(query);
+            }
+        }
+
+        // bytes allocated by this thread, where the JVM counts them
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocations = threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemoryEnabled()
+                ? (com.sun.management.ThreadMXBean) threads : null;
+        long thread = Thread.currentThread().getId();
+
+        Histogram latency = new Histogram("ns");
+        Histogram allocated = new Histogram("bytes");
+        Histogram candidates = new Histogram("candidates");
+        int correct = 0;
+        int rankErrors = 0;
+        int candidateErrors = 0;
+        List<Object> errors = new ArrayList<>();
+        long elapsed = 0;
+        for (int pass = 0; pass < passes; ++pass) {
+            for (int i = 0; i < queries.size(); ++i) {
+                if (!warmCache) {
+                    cg.clearCache();
+                }
+                long allocatedBefore = allocations == null ? 0 : allocations.getThreadAllocatedBytes(thread);
+                long start = System.nanoTime();
+                Corrector.Correction correction = corrector.correct(queries.get(i));
+                long nanos = System.nanoTime() - start;
+                if (allocations != null) {
+                    allocated.record(allocations.getThreadAllocatedBytes(thread) - allocatedBefore);
+                }
+                latency.record(nanos);
+                elapsed += nanos;
+
+                if (pass > 0) {
+                    continue;
+                }
+                for (List<Candidate> wordCandidates : correction.candidates) {
+                    candidates.record(wordCandidates.size());
+                }
+                String gold = golds.get(i);
+                if (gold.equals(correction.correctedQuery)) {
+                    correct++;
+                    continue;
+                }
+                String problem;
+                if (LatticeDecoder.contains(correction.candidates, gold)) {
+                    problem = "rank";
+                    rankErrors++;
+                } else {
+                    problem = "candidates";
+                    candidateErrors++;
+                }
+                Map<String, Object> error = new LinkedHashMap<>();
+                error.put("query", correction.query);
+                error.put("correction", correction.correctedQuery);
+                error.put("gold", gold);
+                error.put("problem", problem);
+                errors.add(error);
+            }
+        }
+
+        Map<String, Object> run = new LinkedHashMap<>();
+        run.put("channel", uniformOrEmpirical);
+        run.put("queryFile", queryFilePath);
+        run.put("queries", queries.size());
+        run.put("warmupPasses", warmupPasses);
+        run.put("passes", passes);
+        run.put("alternativesCache", warmCache ? "warm" : "cleared");
+        run.put("vocabularyChecksum", languageModel.vocabularyChecksum());
+        run.put("javaVersion", System.getProperty("java.version"));
+
+        Map<String, Object> accuracy = new LinkedHashMap<>();
+        accuracy.put("correct", correct);
+        accuracy.put("accuracy", correct / (double) queries.size());
+        accuracy.put("rankErrors", rankErrors);
+        accuracy.put("candidateErrors", candidateErrors);
+
+        Map<String, Object> speed = new LinkedHashMap<>();
+        speed.put("queriesPerSecond", queries.size() * (long) passes / (elapsed / 1e9));
+        speed.put("latencyMicros", summary(latency, 1000.0));
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("run", run);
+        report.put("accuracy", accuracy);
+        report.put("speed", speed);
+        report.put("allocatedBytesPerQuery", allocations == null ? null : summary(allocated, 1));
+        report.put("candidatesPerWord", summary(candidates, 1));
+        report.put("errors", errors);
+
+        System.err.printf("%d queries, %d correct (%.2f%%): %d rank problems, %d candidate generation problems%n",
+                queries.size(), correct, 100.0 * correct / queries.size(), rankErrors, candidateErrors);
+        System.err.printf("%.0f queries/s, latency %s%n", speed.get("queriesPerSecond"), latency);
+        if (allocations != null) {
+            System.err.println("allocated per query: " + allocated);
+        }
+        System.err.println("candidates per word: " + candidates);
+        return report;
+    }
+
+    // mean and percentiles of a histogram, with values divided by scale
+    private static Map<String, Object> summary(Histogram histogram, double scale) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("mean", histogram.getMean() / scale);
+        summary.put("p50", histogram.getP50() / scale);
+        summary.put("p95", histogram.getP95() / scale);
+        summary.put("p99", histogram.getP99() / scale);
+        summary.put("max", histogram.getMax() / scale);
+        return summary;
+    }
+
+    /**
+     * Prints the metrics of two reports side by side, and the queries that one corrects and the
+     * other does not.
+     *
+     * @return false if the new run is less accurate than the base one, or slower, or allocates
+     * more, by more than tolerance percent
+     */
+    static boolean compare(Map<String, Object> base, Map<String, Object> current, double tolerance) {
+        Map<String, Object> baseRun = map(base, "run");
+        Map<String, Object> currentRun = map(current, "run");
+        for (String key : new String[]{"queryFile", "queries", "channel", "alternativesCache", "vocabularyChecksum"}) {
+            if (!String.valueOf(baseRun.get(key)).equals(String.valueOf(currentRun.get(key)))) {
+                System.out.println("warning: the runs differ in " + key + ": " + baseRun.get(key) + " vs " + currentRun.get(key));
+            }
+        }
+
+        System.out.printf("%-32s %12s %12s %9s%n", "", "base", "new", "change");
+        List<String> regressions = new ArrayList<>();
+        row(base, current, "accuracy.correct", 0, true, regressions);
+        row(base, current, "accuracy.rankErrors", -1, false, regressions);
+        row(base, current, "accuracy.candidateErrors", -1, false, regressions);
+        row(base, current, "speed.queriesPerSecond", tolerance, true, regressions);
+        for (String p : new String[]{"mean", "p50", "p95", "p99", "max"}) {
+            // the tail of a few hundred queries is too noisy to gate on
+            boolean gated = "p50".equals(p) || "p95".equals(p);
+            row(base, current, "speed.latencyMicros." + p, gated ? tolerance : -1, false, regressions);
+        }
+        if (base.get("allocatedBytesPerQuery") != null && current.get("allocatedBytesPerQuery") != null) {
+            row(base, current, "allocatedBytesPerQuery.mean", tolerance, false, regressions);
+            row(base, current, "allocatedBytesPerQuery.p99", -1, false, regressions);
+        }
+        row(base, current, "candidatesPerWord.mean", -1, false, regressions);
+        row(base, current, "candidatesPerWord.max", -1, false, regressions);
+
+        Map<String, String> baseErrors = errors(base);
+        Map<String, String> currentErrors = errors(current);
+        Set<String> broken = new LinkedHashSet<>(currentErrors.keySet());
+        broken.removeAll(baseErrors.keySet());
+        Set<String> fixed = new LinkedHashSet<>(baseErrors.keySet());
+        fixed.removeAll(currentErrors.keySet());
+        System.out.println();
+        System.out.println(broken.size() + " queries no longer corrected:");
+        for (String query : broken) {
+            System.out.println("  " + query + "\t" + currentErrors.get(query));
+        }
+        System.out.println(fixed.size() + " queries newly corrected:");
+        for (String query : fixed) {
+            System.out.println("  " + query + "\t" + baseErrors.get(query));
+        }
+
+        System.out.println();
+        if (regressions.isEmpty()) {
+            System.out.println("OK: no regression beyond " + tolerance + "%");
+            return true;
+        }
+        System.out.println("REGRESSION: " + String.join(", ", regressions));
+        return false;
+    }
+
+    // prints the values of a metric, given by its path in the reports, and adds it to the
+    // regressions if it got worse by more than tolerance percent (not checked if tolerance < 0)
+    private static void row(Map<String, Object> base, Map<String, Object> current, String path,
+                            double tolerance, boolean higherIsBetter, List<String> regressions) {
+        double b = number(base, path);
+        double c = number(current, path);
+        double change = b == 0 ? 0 : 100 * (c - b) / b;
+        System.out.printf("%-32s %12.2f %12.2f %+8.1f%%%n", path, b, c, change);
+        if (tolerance >= 0 && (higherIsBetter ? -change : change) > tolerance) {
+            regressions.add(path + " " + String.format("%+.1f%%", change));
+        }
+    }
+
+    // the errors of a report: the correction and the gold one, by query
+    private static Map<String, String> errors(Map<String, Object> report) {
+        Map<String, String> errors = new LinkedHashMap<>();
+        for (Object e : (List<?>) report.get("errors")) {
+            Map<?, ?> error = (Map<?, ?>) e;
+            errors.put((String) error.get("query"), error.get("problem") + ": got '" + error.get("correction")
+                    + "', gold '" + error.get("gold") + "'");
+        }
+        return errors;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> map(Map<String, Object> report, String key) {
+        Object value = report.get(key);
+        Assert.check(value instanceof Map, "The report has no '" + key + "' object");
+        return (Map<String, Object>) value;
+    }
+
+    // the number at a dotted path, e.g. "speed.latencyMicros.p50"
+    private static double number(Map<String, Object> report, String path) {
+        String[] keys = path.split("\\.");
+        Map<String, Object> node = report;
+        for (int i = 0; i < keys.length - 1; ++i) {
+            node = map(node, keys[i]);
+        }
+        Object value = node.get(keys[keys.length - 1]);
+        Assert.check(value instanceof Number, "The report has no number at " + path);
+        return ((Number) value).doubleValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> readReport(String path) throws IOException {
+        Object report = Json.parse(new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8));
+        Assert.check(report instanceof Map, path + " is not an evaluation report");
+        return (Map<String, Object>) report;
+    }
+
+    private static List<String> readLines(String path) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8)) {
+            lines.add(line.trim());
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,133 @@
+package edu.stanford.cs276;
+
+import edu.stanford.cs276.util.CountMinSketch;
+import edu.stanford.cs276.util.LongDoubleMap;
+import edu.stanford.cs276.util.Vocabulary;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static edu.stanford.cs276.LanguageModel.bigramKey;
+import static edu.stanford.cs276.LanguageModel.firstId;
+import static edu.stanford.cs276.LanguageModel.secondId;
+
+/**
+ * Compares the bigram counts that approximate language models estimate (see
+ * {@link LanguageModel#create(String, int, long)}) with the exact ones, for sketches of several sizes,
+ * on a sample corpus. For each size, it reports the error bound the sketch guarantees, how far the
+ * estimates of the bigrams of the corpus actually are from their counts, and how many bigrams that
+ * never occurred get a non-zero estimate, i.e. would be taken for bigrams of the corpus.
+ * <p>
+ * Sizes are given in kilobytes; by default, they range from 1/64 to 4 times the size of the exact
+ * bigram table of a language model built from the same corpus.
+ */
+public class SketchReport {
+
+    private static final int SKETCH_DEPTH = 4;
+
+    // number of random bigrams that never occurred, on which false positives are measured, and
+    // number of random bigrams drawn to find them, which may all have occurred in a small corpus
+    private static final int UNSEEN_SAMPLES = 100000;
+    private static final int UNSEEN_ATTEMPTS = 10 * UNSEEN_SAMPLES;
+
+    public static void main(String[] args) throws Exception {
+
+        if (args.length < 1) {
+            System.err.println(
+                    "Invalid arguments.  Argument count must be at least 1 \n"
+                            + "SketchReport <corpus dir> [<kilobytes> ...] \n"
+                            + "SAMPLE: SketchReport data/corpus \n"
+                            + "SAMPLE: SketchReport data/corpus 64 256 1024 \n");
+            return;
+        }
+
+        List<CorpusCounts.Chunk> chunks = new ArrayList<>();
+        for (File file : new File(args[0]).listFiles()) {
+            chunks.addAll(CorpusCounts.chunks(file, LanguageModel.CHUNK_BYTES));
+        }
+
+        // exact counts, keyed by the ids of the sorted vocabulary, as in a language model
+        CorpusCounts counts = new CorpusCounts();
+        for (CorpusCounts.Chunk chunk : chunks) {
+            counts.addChunk(chunk);
+        }
+        int[] newIds = new int[counts.terms.size()];
+        Vocabulary vocabulary = counts.terms.sorted(newIds);
+        LongDoubleMap exact = new LongDoubleMap(counts.bigramCounts.size());
+        long occurrences = 0;
+        for (int i = 0; i < counts.bigramCounts.size(); ++i) {
+            long key = counts.bigramCounts.keyAt(i);
+            exact.put(bigramKey(newIds[firstId(key)], newIds[secondId(key)]), counts.bigramCounts.valueAt(i));
+            occurrences += (long) counts.bigramCounts.valueAt(i);
+        }
+
+        // keys, values, log probabilities and counts by entry, and the slots of the hash table
+        long exactBytes = exact.size() * (8L + 8 + 8 + 4) + LongDoubleMap.slotBytes(exact.size());
+        System.out.printf("exact bigram table: %d distinct bigrams, %d occurrences, %d KB%n",
+                exact.size(), occurrences, exactBytes >> 10);
+
+        List<Long> budgets = new ArrayList<>();
+        for (int i = 1; i < args.length; ++i) {
+            budgets.add(Long.parseLong(args[i]) << 10);
+        }
+        if (budgets.isEmpty()) {
+            for (int shift = -6; shift <= 2; shift += 2) {
+                budgets.add(Math.max(SKETCH_DEPTH * 4, shift < 0 ? exactBytes >> -shift : exactBytes << shift));
+            }
+        }
+
+        System.out.printf("%10s %10s %10s %8s %10s %10s %8s %8s %8s%n", "KB", "width", "epsilon", "bound",
+                "mean over", "max over", "exact%", "bound%", "unseen%");
+        int unseenSampled = 0;
+        for (long budget : budgets) {
+            CountMinSketch sketch = CountMinSketch.withBudget(budget, SKETCH_DEPTH);
+            // the same additions, in the same order, as a build with one thread
+            for (CorpusCounts.Chunk chunk : chunks) {
+                LongDoubleMap chunkCounts = CorpusCounts.countBigrams(chunk, vocabulary);
+                for (int i = 0; i < chunkCounts.size(); ++i) {
+                    sketch.add(chunkCounts.keyAt(i), (int) chunkCounts.valueAt(i));
+                }
+            }
+
+            long totalOver = 0;
+            long maxOver = 0;
+            int exactEstimates = 0;
+            int withinBound = 0;
+            for (int i = 0; i < exact.size(); ++i) {
+                long over = sketch.estimate(exact.keyAt(i)) - (long) exact.valueAt(i);
+                totalOver += over;
+                maxOver = Math.max(maxOver, over);
+                exactEstimates += over == 0 ? 1 : 0;
+                withinBound += over <= sketch.errorBound() ? 1 : 0;
+            }
+
+            Random random = new Random(276);
+            int unseen = 0;
+            int falsePositives = 0;
+            for (int attempt = 0; attempt < UNSEEN_ATTEMPTS && unseen < UNSEEN_SAMPLES && vocabulary.size() > 0; ++attempt) {
+                long key = bigramKey(random.nextInt(vocabulary.size()), random.nextInt(vocabulary.size()));
+                if (!exact.containsKey(key)) {
+                    unseen++;
+                    falsePositives += sketch.estimate(key) > 0 ? 1 : 0;
+                }
+            }
+
+            System.out.printf("%10d %10d %10.2e %8d %10.3f %10d %8.2f %8.2f %8s%n",
+                    sketch.bytes() >> 10, sketch.width(), sketch.epsilon(), sketch.errorBound(),
+                    totalOver / (double) Math.max(1, exact.size()), maxOver,
+                    percent(exactEstimates, exact.size()), percent(withinBound, exact.size()),
+                    unseen == 0 ? "-" : String.format("%.2f", percent(falsePositives, unseen)));
+            unseenSampled = unseen;
+        }
+        if (unseenSampled < UNSEEN_SAMPLES) {
+            System.out.println("unseen% is over the " + unseenSampled + " bigrams that never occurred among "
+                    + UNSEEN_ATTEMPTS + " random ones");
+        }
+    }
+
+    private static double percent(long n, long total) {
+        return total == 0 ? 0 : 100.0 * n / total;
+    }
+}
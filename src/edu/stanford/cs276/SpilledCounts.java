@@ -0,0 +1,315 @@
+package edu.stanford.cs276;
+
+import edu.stanford.cs276.util.Assert;
+import edu.stanford.cs276.util.RunFile;
+import edu.stanford.cs276.util.Vocabulary;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static edu.stanford.cs276.LanguageModel.bigramKey;
+import static edu.stanford.cs276.LanguageModel.firstId;
+import static edu.stanford.cs276.LanguageModel.secondId;
+
+/**
+ * Exact counts of a corpus that do not fit in memory. Each worker counts documents into its own
+ * {@link CorpusCounts} until they reach a budget, then spills them to a temporary directory as two
+ * sorted runs: the terms with their counts, in lexicographic order, and the bigrams with their
+ * counts, in the lexicographic order of their first then second term. The runs are then merged
+ * k ways into the sorted term counts and the bigram table of the language model.
+ * <p>
+ * The merged bigram keys and counts are written to files, and the tables with one entry per bigram
+ * are memory-mapped files too (see {@link #map(int)}), so the heap only holds the vocabulary, the
+ * counts of one worker, and one buffer per run. The temporary files are deleted on {@link #close()};
+ * their mappings stay readable until the model is saved.
+ */
+class SpilledCounts implements Closeable {
+
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+    private static final int READ_BUFFER_BYTES = 64 << 10;
+
+    // memory that the counts of a worker may take before they are spilled
+    private final long budget;
+    private final Path directory;
+
+    private final List<Path> unigramRuns = Collections.synchronizedList(new ArrayList<>());
+    private final List<Path> bigramRuns = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger files = new AtomicInteger();
+    private final AtomicLong termCount = new AtomicLong();
+
+    /**
+     * @param budget the number of bytes that the counts of each worker may take (see {@link CorpusCounts#bytes()})
+     */
+    SpilledCounts(long budget) throws IOException {
+        this.budget = budget;
+        this.directory = Files.createTempDirectory("cs276-counts");
+    }
+
+    /**
+     * Counts the documents of a chunk into the passed counts, which are spilled whenever they reach
+     * the budget.
+     *
+     * @return the counts to count the next chunk into
+     */
+    CorpusCounts addChunk(CorpusCounts counts, CorpusCounts.Chunk chunk) throws IOException {
+        CorpusCounts[] current = {counts};
+        IOException[] failure = {null};
+        CorpusCounts.readChunk(chunk, line -> {
+            current[0].addDocument(line);
+            if (failure[0] == null && current[0].bytes() > budget) {
+                try {
+                    spill(current[0]);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+                current[0] = new CorpusCounts();
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        return current[0];
+    }
+
+    /**
+     * Writes the passed counts to disk as two sorted runs; the counts must not be used afterwards.
+     */
+    void spill(CorpusCounts counts) throws IOException {
+        int size = counts.terms.size();
+        if (size == 0) {
+            return;
+        }
+        int[] ranks = new int[size];
+        Vocabulary sorted = counts.terms.sorted(ranks);
+        int[] ids = new int[size];
+        for (int id = 0; id < size; ++id) {
+            ids[ranks[id]] = id;
+        }
+
+        Path unigramRun = newFile("unigrams");
+        try (RunFile.Writer out = new RunFile.Writer(unigramRun, WRITE_BUFFER_BYTES)) {
+            for (int r = 0; r < size; ++r) {
+                out.writeString(sorted.word(r));
+                out.writeInt(counts.unigramCounts[ids[r]]);
+            }
+        }
+
+        // sorting by the ranks of the terms sorts by the terms
+        long[] keys = new long[counts.bigramCounts.size()];
+        for (int i = 0; i < keys.length; ++i) {
+            long key = counts.bigramCounts.keyAt(i);
+            keys[i] = bigramKey(ranks[firstId(key)], ranks[secondId(key)]);
+        }
+        Arrays.sort(keys);
+        Path bigramRun = newFile("bigrams");
+        try (RunFile.Writer out = new RunFile.Writer(bigramRun, WRITE_BUFFER_BYTES)) {
+            for (long key : keys) {
+                int r1 = firstId(key);
+                int r2 = secondId(key);
+                out.writeString(sorted.word(r1));
+                out.writeString(sorted.word(r2));
+                out.writeInt((int) counts.bigramCounts.get(bigramKey(ids[r1], ids[r2]), 0));
+            }
+        }
+
+        unigramRuns.add(unigramRun);
+        bigramRuns.add(bigramRun);
+        termCount.addAndGet(counts.termCount);
+    }
+
+    int runCount() {
+        return unigramRuns.size();
+    }
+
+    /**
+     * Merges every run spilled so far.
+     */
+    Merged merge() throws IOException {
+        List<String> terms = new ArrayList<>();
+        int[][] unigramCounts = {new int[1024]};
+        mergeRuns(unigramRuns, false, (first, second, count) -> {
+            if (terms.size() == unigramCounts[0].length) {
+                unigramCounts[0] = Arrays.copyOf(unigramCounts[0], terms.size() * 2);
+            }
+            unigramCounts[0][terms.size()] = count;
+            terms.add(first);
+        });
+
+        // the terms come sorted, so their ids follow their lexicographic order
+        Vocabulary vocabulary = new Vocabulary(terms.size());
+        for (String term : terms) {
+            vocabulary.add(term);
+        }
+        int[] counts = Arrays.copyOf(unigramCounts[0], terms.size());
+        terms.clear();
+
+        Path keyFile = newFile("bigram.keys");
+        Path countFile = newFile("bigram.counts");
+        try (RunFile.Writer keys = new RunFile.Writer(keyFile, WRITE_BUFFER_BYTES);
+             RunFile.Writer bigramCounts = new RunFile.Writer(countFile, WRITE_BUFFER_BYTES)) {
+            mergeRuns(bigramRuns, true, (first, second, count) -> {
+                keys.writeLong(bigramKey(vocabulary.id(first), vocabulary.id(second)));
+                bigramCounts.writeInt(count);
+            });
+        }
+
+        return new Merged(vocabulary, counts, termCount.get(), mapFile(keyFile), mapFile(countFile));
+    }
+
+    /**
+     * Allocates a zeroed buffer of the passed size in a memory-mapped temporary file.
+     */
+    ByteBuffer map(int bytes) {
+        try {
+            Path file = newFile("table");
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes).order(ByteOrder.LITTLE_ENDIAN);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to map a table of " + bytes + " bytes in " + directory, e);
+        }
+    }
+
+    /**
+     * Deletes the temporary files.
+     */
+    @Override
+    public void close() throws IOException {
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+            for (Path path : paths) {
+                if (!path.toFile().delete()) {
+                    // still mapped, on systems that do not delete mapped files
+                    path.toFile().deleteOnExit();
+                }
+            }
+        }
+        if (!directory.toFile().delete()) {
+            directory.toFile().deleteOnExit();
+        }
+    }
+
+    private Path newFile(String name) {
+        return directory.resolve(name + "." + files.getAndIncrement());
+    }
+
+    private static ByteBuffer mapFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Assert.check(channel.size() <= Integer.MAX_VALUE, file + " is larger than 2GB");
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    // merges sorted runs, passing every distinct term (or bigram) to the consumer once, with its total count
+    private static void mergeRuns(List<Path> runs, boolean bigrams, RecordConsumer consumer) throws IOException {
+        PriorityQueue<Cursor> queue = new PriorityQueue<>();
+        List<Cursor> cursors = new ArrayList<>();
+        try {
+            for (Path run : runs) {
+                Cursor cursor = new Cursor(new RunFile.Reader(run, READ_BUFFER_BYTES), bigrams);
+                cursors.add(cursor);
+                if (cursor.next()) {
+                    queue.add(cursor);
+                }
+            }
+
+            while (!queue.isEmpty()) {
+                Cursor cursor = queue.poll();
+                String first = cursor.first;
+                String second = cursor.second;
+                long count = cursor.count;
+                if (cursor.next()) {
+                    queue.add(cursor);
+                }
+                while (!queue.isEmpty() && queue.peek().matches(first, second)) {
+                    Cursor same = queue.poll();
+                    count += same.count;
+                    if (same.next()) {
+                        queue.add(same);
+                    }
+                }
+                Assert.check(count <= Integer.MAX_VALUE, "Count overflow: " + first + " " + (second == null ? "" : second));
+                consumer.accept(first, second, (int) count);
+            }
+        } finally {
+            for (Cursor cursor : cursors) {
+                cursor.reader.close();
+            }
+        }
+    }
+
+    private interface RecordConsumer {
+        void accept(String first, String second, int count) throws IOException;
+    }
+
+    /**
+     * The current record of a run: a term or a bigram, and its count.
+     */
+    private static class Cursor implements Comparable<Cursor> {
+        final RunFile.Reader reader;
+        final boolean bigrams;
+        String first;
+        String second;
+        int count;
+
+        Cursor(RunFile.Reader reader, boolean bigrams) {
+            this.reader = reader;
+            this.bigrams = bigrams;
+        }
+
+        // reads the next record; false at the end of the run
+        boolean next() throws IOException {
+            if (!reader.hasMore()) {
+                return false;
+            }
+            first = reader.readString();
+            second = bigrams ? reader.readString() : null;
+            count = reader.readInt();
+            return true;
+        }
+
+        boolean matches(String first, String second) {
+            return this.first.equals(first) && (!bigrams || this.second.equals(second));
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            int c = first.compareTo(other.first);
+            return c != 0 || !bigrams ? c : second.compareTo(other.second);
+        }
+    }
+
+    /**
+     * The merged counts: the terms in lexicographic order with their counts, and the bigram keys,
+     * in increasing order, with their counts, in read-only mapped files.
+     */
+    static class Merged {
+        final Vocabulary vocabulary;
+        final int[] unigramCounts;
+        final long termCount;
+        final ByteBuffer keyBytes;
+        final ByteBuffer countBytes;
+
+        Merged(Vocabulary vocabulary, int[] unigramCounts, long termCount, ByteBuffer keyBytes, ByteBuffer countBytes) {
+            this.vocabulary = vocabulary;
+            this.unigramCounts = unigramCounts;
+            this.termCount = termCount;
+            this.keyBytes = keyBytes;
+            this.countBytes = countBytes;
+        }
+    }
+}
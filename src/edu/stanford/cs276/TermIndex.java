@@ -0,0 +1,80 @@
+package edu.stanford.cs276;
+
+import edu.stanford.cs276.util.ModelFile;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * An index over the vocabulary of a {@link LanguageModel} that finds the terms close to a word
+ * without generating every string within some edits of it. There are two: a {@link Lexicon} trie,
+ * walked with a bounded edit distance automaton, and a symmetric-delete {@link DeletionIndex},
+ * which is larger but looks words up with a few hash probes.
+ * <p>
+ * The index is built by BuildModels and saved next to the models (see {@link Config#candidateGenFile});
+ * the kind of that file tells which one it is.
+ */
+public interface TermIndex {
+
+    String TRIE = "trie";
+    String DELETES = "deletes";
+
+    /**
+     * Finds the terms that may be within maxDistance edits of the passed word: every such term is
+     * returned, along with some terms that are further away and have to be filtered by the caller.
+     *
+     * @return sorted, distinct term ids
+     */
+    int[] lookup(String w, int maxDistance);
+
+    /**
+     * Saves the index to disk
+     */
+    void save() throws IOException;
+
+    /**
+     * Builds an index of the passed type, {@link #TRIE} or {@link #DELETES}, over the vocabulary of the passed language model.
+     */
+    static TermIndex create(String type, LanguageModel lm) {
+        if (TRIE.equals(type)) {
+            return Lexicon.create(lm);
+        } else if (DELETES.equals(type)) {
+            return DeletionIndex.create(lm);
+        }
+        throw new IllegalArgumentException("Invalid term index type: " + type + ", must be one of <trie | deletes>");
+    }
+
+    /**
+     * @return the type of the index saved next to the models, {@link #TRIE} or {@link #DELETES}, or null if there is none
+     */
+    static String savedType() throws IOException {
+        if (!new File(Config.candidateGenFile).isFile()) {
+            return null;
+        }
+        String kind = ModelFile.open(Config.candidateGenFile, null).kind();
+        if (DeletionIndex.MODEL_KIND.equals(kind)) {
+            return DELETES;
+        } else if (Lexicon.MODEL_KIND.equals(kind)) {
+            return TRIE;
+        }
+        throw new IOException(Config.candidateGenFile + " holds a '" + kind + "' model, expected a term index");
+    }
+
+    /**
+     * Loads the index saved next to the models, provided that it was built for the passed language model.
+     *
+     * @return the index, or null if there is none or if it belongs to another language model
+     */
+    static TermIndex load(LanguageModel lm) throws IOException {
+        if (!new File(Config.candidateGenFile).isFile()) {
+            return null;
+        }
+        ModelFile file = ModelFile.open(Config.candidateGenFile, null);
+        if (DeletionIndex.MODEL_KIND.equals(file.kind())) {
+            return DeletionIndex.read(file, lm);
+        } else if (Lexicon.MODEL_KIND.equals(file.kind())) {
+            return Lexicon.read(file, lm);
+        }
+        throw new IOException(Config.candidateGenFile + " holds a '" + file.kind() + "' model, expected a term index");
+    }
+}
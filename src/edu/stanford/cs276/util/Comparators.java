@@ -8,11 +8,14 @@ import java.util.List;
 
 public class Comparators {
 
+    // candidates are at most two edits away from the word they replace; anything further counts as 3
+    private static final int MAX_DISTANCE = 2;
+
     // compares strings based on how far they are, in terms of edit distance, from the passed string
     public static Comparator<String> EDIT_DISTANCE_COMPARATOR(String w) {
         return (s1, s2) -> {
-            int d1 = DamerauLevenshtein.editDistance(w, s1);
-            int d2 = DamerauLevenshtein.editDistance(w, s2);
+            int d1 = DamerauLevenshtein.editDistance(w, s1, MAX_DISTANCE);
+            int d2 = DamerauLevenshtein.editDistance(w, s2, MAX_DISTANCE);
             if (d1<d2) {
                 return -1;
             } else if (d1>d2) {
@@ -25,18 +28,14 @@ public class Comparators {
 
     // compares strings based on their language model / noisy channel model probabilities
     public static Comparator<String> LANGUAGE_AND_NOISY_MODELS_COMPARATOR(String w, LanguageModel lm_, EditCostModel ecm_) {
-        return (s1, s2) -> {
-            double pUnigram1 = lm_.getUnigramProbability(s1);
-            double pUnigram2 = lm_.getUnigramProbability(s2);
-
-            double pNoisy1 = ecm_.editProbability(w, s1, DamerauLevenshtein.editDistance(w, s1));
-            double pNoisy2 = ecm_.editProbability(w, s2, DamerauLevenshtein.editDistance(w, s2));
-
-            double p1 = (Math.log(pUnigram1)) + Math.log(pNoisy1);
-            double p2 = (Math.log(pUnigram2)) + Math.log(pNoisy2);
+        return (s1, s2) -> Double.compare(languageAndNoisyModelsScore(w, s1, lm_, ecm_), languageAndNoisyModelsScore(w, s2, lm_, ecm_));
+    }
 
-            return Double.valueOf(p1).compareTo(Double.valueOf(p2));
-        };
+    // log probability of replacing w with s, as used by the comparator above
+    public static double languageAndNoisyModelsScore(String w, String s, LanguageModel lm_, EditCostModel ecm_) {
+        double logUnigram = lm_.logProbability(lm_.wordId(s));
+        double logNoisy = ecm_.logEditProbability(w, s, DamerauLevenshtein.editDistance(w, s, MAX_DISTANCE));
+        return logUnigram + logNoisy;
     }
 
     // compares two lists of strings based on their sizes
@@ -0,0 +1,159 @@
+package edu.stanford.cs276.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Approximate counts of long keys in a fixed amount of memory: depth rows of width counters, each
+ * row with its own hash function. A key is counted in one counter per row, and its count is
+ * estimated by the smallest of them. Counts are added with the conservative update: only the
+ * counters below the new estimate are raised, and only up to it, which keeps the overestimates of
+ * keys that share counters much lower than with plain increments.
+ * <p>
+ * An estimate is never below the true count. With probability at least 1 - {@link #delta()}, it
+ * exceeds it by at most {@link #epsilon()} times the total of all the counts added, which is
+ * {@link #errorBound()}.
+ * <p>
+ * Like {@link LongDoubleMap}, a sketch is either built in memory or read (read-only) from a {@link ModelFile}.
+ */
+public class CountMinSketch {
+
+    private final int depth;
+    private final int width;
+
+    private final ByteBuffer cellBytes;
+    private final IntBuffer cells;
+
+    // total of the counts added
+    private long total;
+
+    public CountMinSketch(int depth, int width) {
+        Assert.check(depth > 0 && width > 0 && (long) depth * width * 4 <= Integer.MAX_VALUE,
+                "Invalid sketch dimensions: " + depth + " x " + width);
+        this.depth = depth;
+        this.width = width;
+        cellBytes = ModelFile.allocate(depth * width * 4);
+        cells = cellBytes.asIntBuffer();
+    }
+
+    private CountMinSketch(ByteBuffer shapeBytes, ByteBuffer cellBytes) {
+        LongBuffer shape = shapeBytes.asLongBuffer();
+        this.depth = (int) shape.get(0);
+        this.width = (int) shape.get(1);
+        this.total = shape.get(2);
+        this.cellBytes = cellBytes;
+        this.cells = cellBytes.asIntBuffer();
+    }
+
+    /**
+     * @return the widest sketch with depth rows that fits in the passed number of bytes
+     */
+    public static CountMinSketch withBudget(long bytes, int depth) {
+        long width = bytes / 4 / depth;
+        Assert.check(width > 0, "A budget of " + bytes + " bytes is too small for a sketch of depth " + depth);
+        Assert.check(width * depth * 4 <= Integer.MAX_VALUE, "A sketch must fit in 2GB, got a budget of " + bytes + " bytes");
+        return new CountMinSketch(depth, (int) width);
+    }
+
+    /**
+     * Reads a sketch previously written with {@link #write(ModelFile.Writer, String)}.
+     */
+    public static CountMinSketch read(ModelFile file, String name) throws IOException {
+        return new CountMinSketch(file.section(name + ".shape"), file.section(name + ".cells"));
+    }
+
+    /**
+     * Adds this sketch to the passed writer, as two sections whose names start with the passed name.
+     */
+    public void write(ModelFile.Writer writer, String name) {
+        ByteBuffer shapeBytes = ModelFile.allocate(3 * 8);
+        LongBuffer shape = shapeBytes.asLongBuffer();
+        shape.put(0, depth);
+        shape.put(1, width);
+        shape.put(2, total);
+        writer.add(name + ".shape", shapeBytes);
+        writer.add(name + ".cells", cellBytes.duplicate().position(0).limit(depth * width * 4));
+    }
+
+    /**
+     * Adds count occurrences of the key.
+     */
+    public void add(long key, int count) {
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; ++row) {
+            estimate = Math.min(estimate, cells.get(cell(row, key)));
+        }
+        // saturates rather than wraps around
+        int raised = (int) Math.min(Integer.MAX_VALUE, (long) estimate + count);
+        for (int row = 0; row < depth; ++row) {
+            int cell = cell(row, key);
+            if (cells.get(cell) < raised) {
+                cells.put(cell, raised);
+            }
+        }
+        total += count;
+    }
+
+    /**
+     * @return an estimate of the count of the key, never below it
+     */
+    public int estimate(long key) {
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; ++row) {
+            estimate = Math.min(estimate, cells.get(cell(row, key)));
+        }
+        return estimate;
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    /**
+     * @return the total of the counts added
+     */
+    public long total() {
+        return total;
+    }
+
+    public long bytes() {
+        return (long) depth * width * 4;
+    }
+
+    /**
+     * @return the factor of the total that bounds the overestimates, e / width
+     */
+    public double epsilon() {
+        return Math.E / width;
+    }
+
+    /**
+     * @return the probability that an estimate exceeds the bound, e^-depth
+     */
+    public double delta() {
+        return Math.exp(-depth);
+    }
+
+    /**
+     * @return the most that an estimate exceeds the true count by, with probability 1 - delta()
+     */
+    public long errorBound() {
+        return (long) Math.ceil(epsilon() * total);
+    }
+
+    // index of the counter of the key in the passed row
+    private int cell(int row, long key) {
+        long h = key ^ (0x9E3779B97F4A7C15L * (row + 1));
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        h ^= h >>> 31;
+        // maps the high 32 bits of the hash onto [0, width) without a division
+        return row * width + (int) (((h >>> 32) * width) >>> 32);
+    }
+}
@@ -0,0 +1,34 @@
+package edu.stanford.cs276.util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count of events, incremented without locks by any number of threads.
+ */
+public class Counter implements CounterMBean {
+
+    private final LongAdder count = new LongAdder();
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long n) {
+        count.add(n);
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public void reset() {
+        count.reset();
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(getCount());
+    }
+}
@@ -0,0 +1,11 @@
+package edu.stanford.cs276.util;
+
+/**
+ * JMX view of a {@link Counter}.
+ */
+public interface CounterMBean {
+
+    long getCount();
+
+    void reset();
+}
@@ -1,53 +1,94 @@
 package edu.stanford.cs276.util;
 
+/**
+ * Optimal string alignment distance: the number of insertions, deletions, substitutions and swaps of
+ * adjacent characters needed to turn a string into another, where no substring is edited twice.
+ * <p>
+ * Callers usually only care about small distances, so the distance can be bounded: only the cells
+ * of the dynamic programming matrix within maxDistance of the diagonal are computed, and the
+ * computation stops as soon as a whole row exceeds the bound. The rows are kept in thread-local
+ * buffers, so that a call does not allocate.
+ */
 public class DamerauLevenshtein {
 
-    // source: stackoverflow
+    // the three last rows of the matrix, per thread
+    private static final ThreadLocal<int[][]> ROWS = ThreadLocal.withInitial(() -> new int[3][32]);
+
+    private DamerauLevenshtein() {
+    }
+
     public static int editDistance(String s, String t) {
+        return editDistance(s, t, Math.max(s.length(), t.length()));
+    }
+
+    /**
+     * @return the distance between s and t, or maxDistance + 1 if it is greater than maxDistance
+     */
+    public static int editDistance(String s, String t, int maxDistance) {
         // degenerate cases
-        if (s == t) return 0;
-        if (s.length() == 0) return t.length();
-        if (t.length() == 0) return s.length();
-
-        // create two work vectors of integer distances
-        int[] v0 = new int[t.length() + 1];
-        int[] v1 = new int[t.length() + 1];
-
-        // initialize v0 (the previous row of distances)
-        // this row is A[0][i]: edit distance for an empty s
-        // the distance is just the number of characters to delete from t
-        for (int i = 0; i < v0.length; i++)
-            v0[i] = i;
-
-        for (int i = 0; i < s.length(); i++)
-        {
-            // calculate v1 (current row distances) from the previous row v0
-
-            // first element of v1 is A[i+1][0]
-            //   edit distance is delete (i+1) chars from s to match empty t
-            v1[0] = i + 1;
-
-            // use formula to fill in the rest of the row
-            for (int j = 0; j < t.length(); j++)
-            {
-                int cost = (s.charAt(i) == t.charAt(j)) ? 0 : 1;
-                v1[j + 1] = min(v1[j] + 1, v0[j + 1] + 1, v0[j] + cost);
-            }
+        if (s.equals(t)) return 0;
+        int n = s.length();
+        int m = t.length();
+        int far = maxDistance + 1;
+        if (Math.abs(n - m) > maxDistance) return far;
+        if (n == 0) return m;
+        if (m == 0) return n;
 
-            // copy v1 (current row) to v0 (previous row) for next iteration
-            System.arraycopy(v1, 0, v0, 0, v0.length);
+        int[][] rows = ROWS.get();
+        if (rows[0].length < m + 2) {
+            int length = Math.max(m + 2, rows[0].length * 2);
+            rows = new int[][]{new int[length], new int[length], new int[length]};
+            ROWS.set(rows);
         }
+        int[] beforePrevious = rows[0];
+        int[] previous = rows[1];
+        int[] current = rows[2];
 
-        return v1[t.length()];
-    }
+        // first row: distance from the empty prefix of s, within the band
+        for (int j = 0; j <= Math.min(m, maxDistance); j++) {
+            previous[j] = j;
+        }
+        if (maxDistance < m) {
+            previous[maxDistance + 1] = far;
+        }
 
-    // source: stackoverflow
-    private static int min(int ... numbers) {
-        int min = Integer.MAX_VALUE;
-        for (int num : numbers) {
-            min = Math.min(min, num);
+        for (int i = 1; i <= n; i++) {
+            int lo = Math.max(1, i - maxDistance);
+            int hi = Math.min(m, i + maxDistance);
+
+            // the cells just outside the band act as infinitely far
+            current[lo - 1] = lo == 1 ? Math.min(i, far) : far;
+            if (hi < m) {
+                current[hi + 1] = far;
+            }
+
+            char si = s.charAt(i - 1);
+            int rowMin = current[lo - 1];
+            for (int j = lo; j <= hi; j++) {
+                char tj = t.charAt(j - 1);
+                int d = previous[j - 1] + (si == tj ? 0 : 1);
+                d = Math.min(d, previous[j] + 1);
+                d = Math.min(d, current[j - 1] + 1);
+                if (i > 1 && j > 1 && si == t.charAt(j - 2) && s.charAt(i - 2) == tj) {
+                    d = Math.min(d, beforePrevious[j - 2] + 1);
+                }
+                d = Math.min(d, far);
+                current[j] = d;
+                rowMin = Math.min(rowMin, d);
+            }
+
+            // distances never decrease along a path, so nothing below this row can get back within the bound
+            if (rowMin > maxDistance) {
+                return far;
+            }
+
+            int[] recycled = beforePrevious;
+            beforePrevious = previous;
+            previous = current;
+            current = recycled;
         }
-        return min;
+
+        return previous[m];
     }
 
 }
@@ -0,0 +1,167 @@
+package edu.stanford.cs276.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative values, such as latencies in nanoseconds, with buckets laid out as in
+ * an HDR histogram: values below 2^SUB_BITS have a bucket each, and every power of two above is split
+ * into 2^SUB_BITS buckets of equal width. A recorded value is thus known within 1/2^SUB_BITS of
+ * itself, whatever its magnitude, and the buckets of all long values fit in a small fixed array.
+ * <p>
+ * Recording is lock free, so the histogram can be shared by all the threads that correct queries.
+ * Percentiles are computed from a pass over the buckets while values are still being recorded, so
+ * they may miss the latest ones.
+ */
+public class Histogram implements HistogramMBean {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = SUB + (63 - SUB_BITS) * SUB;
+
+    private final String unit;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param unit what the recorded values are, e.g. "ns"
+     */
+    public Histogram(String unit) {
+        this.unit = unit;
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(bucket(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Records the time elapsed since start, a value of {@link System#nanoTime()}.
+     */
+    public void recordSince(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    @Override
+    public String getUnit() {
+        return unit;
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : sum.sum() / (double) n;
+    }
+
+    @Override
+    public long getMax() {
+        return max.get();
+    }
+
+    @Override
+    public long getP50() {
+        return percentile(50);
+    }
+
+    @Override
+    public long getP95() {
+        return percentile(95);
+    }
+
+    @Override
+    public long getP99() {
+        return percentile(99);
+    }
+
+    @Override
+    public long getP999() {
+        return percentile(99.9);
+    }
+
+    /**
+     * @return the highest value of the bucket that holds the passed percentile of the recorded
+     * values, or 0 if there are none
+     */
+    public long percentile(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int b = 0; b < BUCKETS; ++b) {
+            counts[b] = buckets.get(b);
+            total += counts[b];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; ++b) {
+            seen += counts[b];
+            if (seen >= rank) {
+                return Math.min(highest(b), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    @Override
+    public void reset() {
+        for (int b = 0; b < BUCKETS; ++b) {
+            buckets.set(b, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    /**
+     * One line summary; nanosecond values are shown in microseconds.
+     */
+    @Override
+    public String toString() {
+        if ("ns".equals(unit)) {
+            return String.format("count=%d mean=%.1fus p50=%.1fus p95=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                    getCount(), getMean() / 1000, micros(getP50()), micros(getP95()), micros(getP99()),
+                    micros(getP999()), micros(getMax()));
+        }
+        return String.format("count=%d mean=%.2f p50=%d p95=%d p99=%d p99.9=%d max=%d %s",
+                getCount(), getMean(), getP50(), getP95(), getP99(), getP999(), getMax(), unit);
+    }
+
+    private static double micros(long nanos) {
+        return nanos / (double) TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    // bucket of a value: the value itself below SUB, otherwise its power of two and its next SUB_BITS bits
+    static int bucket(long value) {
+        if (value < SUB) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BITS;
+        return SUB + shift * SUB + (int) ((value >>> shift) - SUB);
+    }
+
+    // highest value that falls into bucket b
+    static long highest(int b) {
+        if (b < SUB) {
+            return b;
+        }
+        int shift = (b - SUB) / SUB;
+        long low = (long) (SUB + (b - SUB) % SUB) << shift;
+        return low + (1L << shift) - 1;
+    }
+}
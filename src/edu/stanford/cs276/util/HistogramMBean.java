@@ -0,0 +1,25 @@
+package edu.stanford.cs276.util;
+
+/**
+ * JMX view of a {@link Histogram}.
+ */
+public interface HistogramMBean {
+
+    String getUnit();
+
+    long getCount();
+
+    double getMean();
+
+    long getMax();
+
+    long getP50();
+
+    long getP95();
+
+    long getP99();
+
+    long getP999();
+
+    void reset();
+}
@@ -0,0 +1,69 @@
+package edu.stanford.cs276.util;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes lines of UTF-8 text through a large buffer, which is flushed when it holds flushChars
+ * characters, and at least every flushMillis milliseconds while it holds anything, so that a
+ * consumer at the other end of a pipe does not wait for a slow producer.
+ */
+public class LineWriter implements Closeable {
+
+    private final BufferedWriter out;
+    private final int flushChars;
+    private final ScheduledExecutorService timer;
+
+    // characters written since the last flush
+    private int unflushed = 0;
+
+    public LineWriter(OutputStream out, int flushChars, long flushMillis) {
+        this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), flushChars);
+        this.flushChars = flushChars;
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "line-writer-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                flushIfDirty();
+            } catch (IOException e) {
+                // the next write or flush reports it
+            }
+        }, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void writeLine(String line) throws IOException {
+        out.write(line);
+        out.write('\n');
+        unflushed += line.length() + 1;
+        if (unflushed >= flushChars) {
+            flush();
+        }
+    }
+
+    public synchronized void flush() throws IOException {
+        out.flush();
+        unflushed = 0;
+    }
+
+    private synchronized void flushIfDirty() throws IOException {
+        if (unflushed > 0) {
+            flush();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        timer.shutdownNow();
+        out.close();
+    }
+}
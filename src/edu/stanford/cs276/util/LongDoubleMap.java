@@ -0,0 +1,203 @@
+package edu.stanford.cs276.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Open-addressing map from primitive long keys to primitive double values. Nothing is boxed: entries
+ * live in two parallel buffers (in insertion order) and a separate table of slots points into them,
+ * which also makes it cheap to walk every entry with {@link #keyAt(int)} / {@link #valueAt(int)}.
+ * <p>
+ * Like {@link Vocabulary}, a map is either built in memory or read (read-only) from a {@link ModelFile}.
+ */
+public class LongDoubleMap {
+
+    private ByteBuffer keyBytes;
+    private LongBuffer keys;
+
+    private ByteBuffer valueBytes;
+    private DoubleBuffer values;
+
+    // open-addressing table: (index + 1) of the entry hashed to the slot, 0 for an empty slot
+    private ByteBuffer slotBytes;
+    private IntBuffer slots;
+
+    private int size;
+
+    public LongDoubleMap() {
+        this(1024);
+    }
+
+    public LongDoubleMap(int expectedSize) {
+        int capacity = Math.max(16, expectedSize);
+        keyBytes = ModelFile.allocate(capacity * 8);
+        keys = keyBytes.asLongBuffer();
+        valueBytes = ModelFile.allocate(capacity * 8);
+        values = valueBytes.asDoubleBuffer();
+        slotBytes = ModelFile.allocate(Vocabulary.tableSizeFor(expectedSize) * 4);
+        slots = slotBytes.asIntBuffer();
+    }
+
+    private LongDoubleMap(ByteBuffer keyBytes, ByteBuffer valueBytes, ByteBuffer slotBytes) {
+        this.keyBytes = keyBytes;
+        this.keys = keyBytes.asLongBuffer();
+        this.valueBytes = valueBytes;
+        this.values = valueBytes.asDoubleBuffer();
+        this.slotBytes = slotBytes;
+        this.slots = slotBytes.asIntBuffer();
+        this.size = keys.limit();
+    }
+
+    /**
+     * Makes a map of the first size entries of the passed key and value buffers, whose keys are
+     * distinct, and fills the passed slot buffer, which must be zeroed and of {@link #slotBytes(int)}
+     * bytes, with its table. The map is the one that putting the entries in order into a new map of
+     * expected size {@code size} builds, but its buffers can live anywhere, e.g. in mapped files.
+     */
+    public static LongDoubleMap of(ByteBuffer keyBytes, ByteBuffer valueBytes, ByteBuffer slotBytes, int size) {
+        LongDoubleMap map = new LongDoubleMap(keyBytes, valueBytes, slotBytes);
+        map.size = size;
+        int mask = map.slots.capacity() - 1;
+        for (int index = 0; index < size; ++index) {
+            int slot = hash(map.keys.get(index)) & mask;
+            while (map.slots.get(slot) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            map.slots.put(slot, index + 1);
+        }
+        return map;
+    }
+
+    /**
+     * @return the size of the slot table of a map of the passed expected size
+     */
+    public static int slotBytes(int expectedSize) {
+        return Vocabulary.tableSizeFor(expectedSize) * 4;
+    }
+
+    /**
+     * Reads a map previously written with {@link #write(ModelFile.Writer, String)}.
+     */
+    public static LongDoubleMap read(ModelFile file, String name) throws IOException {
+        return new LongDoubleMap(file.section(name + ".keys"), file.section(name + ".values"), file.section(name + ".slots"));
+    }
+
+    /**
+     * Adds this map to the passed writer, as three sections whose names start with the passed name.
+     */
+    public void write(ModelFile.Writer writer, String name) {
+        writer.add(name + ".keys", keyBytes.duplicate().position(0).limit(size * 8));
+        writer.add(name + ".values", valueBytes.duplicate().position(0).limit(size * 8));
+        writer.add(name + ".slots", slotBytes.duplicate().position(0).limit(slots.limit() * 4));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(long key) {
+        return indexOf(key) != -1;
+    }
+
+    /**
+     * @return the value mapped to the key, or the passed default if there is no such key
+     */
+    public double get(long key, double defaultValue) {
+        int index = indexOf(key);
+        return index == -1 ? defaultValue : values.get(index);
+    }
+
+    public void put(long key, double value) {
+        int index = insert(key);
+        values.put(index, value);
+    }
+
+    /**
+     * Adds delta to the value mapped to the key (a missing key counts as 0).
+     */
+    public void addTo(long key, double delta) {
+        int index = insert(key);
+        values.put(index, values.get(index) + delta);
+    }
+
+    public long keyAt(int index) {
+        return keys.get(index);
+    }
+
+    public double valueAt(int index) {
+        return values.get(index);
+    }
+
+    public void setValueAt(int index, double value) {
+        values.put(index, value);
+    }
+
+    /**
+     * @return the index of the entry holding the key, or -1 if there is no such key
+     */
+    public int indexOf(long key) {
+        return slots.get(find(key)) - 1;
+    }
+
+    // returns the slot holding the key, or the empty slot where it would go
+    private int find(long key) {
+        int mask = slots.capacity() - 1;
+        int slot = hash(key) & mask;
+        while (true) {
+            int entry = slots.get(slot);
+            if (entry == 0 || keys.get(entry - 1) == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private int insert(long key) {
+        int slot = find(key);
+        int entry = slots.get(slot);
+        if (entry != 0) {
+            return entry - 1;
+        }
+
+        if (size == keys.capacity()) {
+            grow(size * 2);
+        }
+        int index = size++;
+        keys.put(index, key);
+        values.put(index, 0.0);
+        slots.put(slot, index + 1);
+
+        if (size * 2 > slots.capacity()) {
+            rehash(slots.capacity() * 2);
+        }
+        return index;
+    }
+
+    private void grow(int capacity) {
+        keyBytes = ModelFile.grow(keyBytes, size * 8, capacity * 8);
+        keys = keyBytes.asLongBuffer();
+        valueBytes = ModelFile.grow(valueBytes, size * 8, capacity * 8);
+        values = valueBytes.asDoubleBuffer();
+    }
+
+    private void rehash(int capacity) {
+        slotBytes = ModelFile.allocate(capacity * 4);
+        slots = slotBytes.asIntBuffer();
+        int mask = capacity - 1;
+        for (int index = 0; index < size; ++index) {
+            int slot = hash(keys.get(index)) & mask;
+            while (slots.get(slot) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots.put(slot, index + 1);
+        }
+    }
+
+    static int hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+}
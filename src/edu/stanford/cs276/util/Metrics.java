@@ -0,0 +1,118 @@
+package edu.stanford.cs276.util;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The counters and histograms of the corrector, by name. Each one is registered with the platform
+ * MBean server when it is created, as edu.stanford.cs276:type=Counter,name=&lt;name&gt; or
+ * type=Histogram, so that jconsole or any JMX client can read them from a running corrector, and
+ * they can be dumped as text, once or periodically.
+ * <p>
+ * The instrumented classes keep the metrics they update in static fields, so that updating one is
+ * only a few lock free additions. Registering the first metric starts the platform MBean server,
+ * which takes a few hundred milliseconds, so metrics are registered by a background thread: they
+ * can be updated right away, and show up over JMX shortly after.
+ */
+public class Metrics {
+
+    private static final String DOMAIN = "edu.stanford.cs276";
+
+    private static final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+
+    private static final ExecutorService registrar = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "metrics-register");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private Metrics() { /* private constructor to defeat instantiation */ }
+
+    /**
+     * @return the counter with the passed name, created the first time it is asked for
+     */
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> register("Counter", n, new Counter()));
+    }
+
+    /**
+     * @return the histogram of latencies, in nanoseconds, with the passed name
+     */
+    public static Histogram latency(String name) {
+        return histogram(name, "ns");
+    }
+
+    /**
+     * @return the histogram with the passed name, whose values are in unit, created the first time it is asked for
+     */
+    public static Histogram histogram(String name, String unit) {
+        return histograms.computeIfAbsent(name, n -> register("Histogram", n, new Histogram(unit)));
+    }
+
+    /**
+     * Resets every metric.
+     */
+    public static void reset() {
+        counters.values().forEach(Counter::reset);
+        histograms.values().forEach(Histogram::reset);
+    }
+
+    /**
+     * Prints every metric, one per line, sorted by name.
+     */
+    public static void dump(PrintStream out) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# metrics ").append(LocalDateTime.now()).append('\n');
+        for (Map.Entry<String, Counter> e : counters.entrySet()) {
+            sb.append(String.format("%-28s %s%n", e.getKey(), e.getValue()));
+        }
+        for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+            sb.append(String.format("%-28s %s%n", e.getKey(), e.getValue()));
+        }
+        // one print, so that dumps from several threads do not interleave
+        out.print(sb);
+        out.flush();
+    }
+
+    /**
+     * Dumps the metrics to out every periodMillis, from a daemon thread.
+     *
+     * @return the executor of the dumps, to shut down to stop them
+     */
+    public static ScheduledExecutorService dumpEvery(long periodMillis, PrintStream out) {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleAtFixedRate(() -> dump(out), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        return timer;
+    }
+
+    private static <T> T register(String type, String name, T mbean) {
+        registrar.execute(() -> {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + name);
+                if (!server.isRegistered(objectName)) {
+                    server.registerMBean(mbean, objectName);
+                }
+            } catch (JMException | SecurityException e) {
+                // the metric still works, it is only not visible over JMX
+                Logger.print(false, "could not register metric " + name + ": " + e);
+            }
+        });
+        return mbean;
+    }
+}
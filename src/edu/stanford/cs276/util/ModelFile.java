@@ -0,0 +1,316 @@
+package edu.stanford.cs276.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Versioned binary container for the persisted models. A model file is a header followed by named
+ * sections of raw little-endian data (sorted arrays, hash slots, probabilities, ...). Readers map
+ * each section straight from the page cache with {@link FileChannel#map}, so opening a model costs
+ * a few system calls no matter how large it is, and processes that open the same file share its pages.
+ * <p>
+ * Layout:
+ * <pre>
+ *   magic "CS276MDL" | format version (int) | section count (int) | kind (16 bytes) | header crc (long)
+ *   per section: name (16 bytes) | offset (long) | length (long) | crc32 (long)
+ *   section data, each section starting on an 8-byte boundary
+ * </pre>
+ * The header crc covers everything before it plus the section table. Section checksums are only
+ * verified by {@link #verify()}, because checking them means reading every page of the file.
+ */
+public class ModelFile {
+
+    public static final int FORMAT_VERSION = 1;
+
+    private static final byte[] MAGIC = "CS276MDL".getBytes(StandardCharsets.US_ASCII);
+    private static final int NAME_BYTES = 16;
+    private static final int HEADER_BYTES = MAGIC.length + 4 + 4 + NAME_BYTES;
+    private static final int ENTRY_BYTES = NAME_BYTES + 8 + 8 + 8;
+
+    private final String path;
+    private final int version;
+    private final String kind;
+    private final long fingerprint;
+    private final Map<String, ByteBuffer> sections = new LinkedHashMap<>();
+    private final Map<String, Long> checksums = new LinkedHashMap<>();
+
+    private ModelFile(String path, int version, String kind, long fingerprint) {
+        this.path = path;
+        this.version = version;
+        this.kind = kind;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Allocates a buffer with the byte order used by model files.
+     */
+    public static ByteBuffer allocate(int bytes) {
+        return ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Allocates a buffer outside of the Java heap, with the byte order used by model files, for
+     * tables that a loaded model computes rather than maps: like mapped sections, their contents are
+     * never traced by the garbage collector.
+     */
+    public static ByteBuffer allocateDirect(int bytes) {
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Allocates a larger buffer (see {@link #allocate(int)}) holding a copy of the first usedBytes bytes of the passed one.
+     */
+    public static ByteBuffer grow(ByteBuffer buffer, int usedBytes, int bytes) {
+        ByteBuffer grown = allocate(bytes);
+        grown.put(buffer.duplicate().position(0).limit(usedBytes));
+        return grown.clear();
+    }
+
+    /**
+     * @return true if the file at the passed path starts with the model file magic number
+     */
+    public static boolean isModelFile(String path) throws IOException {
+        File file = new File(path);
+        if (!file.isFile() || file.length() < MAGIC.length) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+            channel.read(magic, 0);
+            return magic.flip().equals(ByteBuffer.wrap(MAGIC));
+        }
+    }
+
+    /**
+     * Maps the model file at the passed path, after checking its magic number, version, kind and header checksum.
+     *
+     * @param expectedKind the kind of model the file must hold, or null to accept any (see {@link #kind()})
+     */
+    public static ModelFile open(String path, String expectedKind) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0);
+            header.flip();
+
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!ByteBuffer.wrap(magic).equals(ByteBuffer.wrap(MAGIC))) {
+                throw new IOException(path + " is not a model file");
+            }
+            int version = header.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException(path + " has format version " + version + ", expected " + FORMAT_VERSION);
+            }
+            int sectionCount = header.getInt();
+            String kind = readName(header);
+            if (expectedKind != null && !kind.equals(expectedKind)) {
+                throw new IOException(path + " holds a '" + kind + "' model, expected '" + expectedKind + "'");
+            }
+
+            ByteBuffer table = ByteBuffer.allocate(sectionCount * ENTRY_BYTES + 8).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, table, HEADER_BYTES);
+            table.flip();
+
+            CRC32 crc = new CRC32();
+            crc.update(header.duplicate().flip());
+            crc.update(table.duplicate().limit(sectionCount * ENTRY_BYTES));
+            if (table.getLong(sectionCount * ENTRY_BYTES) != crc.getValue()) {
+                throw new IOException(path + " has a corrupt header");
+            }
+
+            ModelFile modelFile = new ModelFile(path, version, kind, crc.getValue());
+            for (int i = 0; i < sectionCount; ++i) {
+                String name = readName(table);
+                long offset = table.getLong();
+                long length = table.getLong();
+                long checksum = table.getLong();
+                if (offset + length > channel.size()) {
+                    throw new IOException(path + " is truncated: section '" + name + "' ends past the end of the file");
+                }
+                Assert.check(length <= Integer.MAX_VALUE, "Section '" + name + "' is larger than 2GB");
+                ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                modelFile.sections.put(name, data.order(ByteOrder.LITTLE_ENDIAN));
+                modelFile.checksums.put(name, checksum);
+            }
+            return modelFile;
+        }
+    }
+
+    public int version() {
+        return version;
+    }
+
+    public String kind() {
+        return kind;
+    }
+
+    /**
+     * @return the header crc, which covers the checksums of every section: files with the same
+     * sections hold the same data and have the same fingerprint
+     */
+    public long fingerprint() {
+        return fingerprint;
+    }
+
+    public boolean hasSection(String name) {
+        return sections.containsKey(name);
+    }
+
+    /**
+     * @return a read-only, little-endian view of the section's data
+     */
+    public ByteBuffer section(String name) throws IOException {
+        ByteBuffer data = sections.get(name);
+        if (data == null) {
+            throw new IOException(path + " has no section '" + name + "'");
+        }
+        return data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return the CRC-32 checksum of the section's data, as recorded when the file was written
+     */
+    public long checksum(String name) throws IOException {
+        section(name);
+        return checksums.get(name);
+    }
+
+    /**
+     * Checks every section against the checksum recorded when the file was written.
+     */
+    public void verify() throws IOException {
+        for (Map.Entry<String, ByteBuffer> e : sections.entrySet()) {
+            CRC32 crc = new CRC32();
+            crc.update(e.getValue().duplicate());
+            if (crc.getValue() != checksums.get(e.getKey())) {
+                throw new IOException(path + " is corrupt: checksum mismatch in section '" + e.getKey() + "'");
+            }
+        }
+    }
+
+    private static String readName(ByteBuffer buffer) {
+        byte[] name = new byte[NAME_BYTES];
+        buffer.get(name);
+        int length = 0;
+        while (length < NAME_BYTES && name[length] != 0) {
+            length++;
+        }
+        return new String(name, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    private static void writeName(ByteBuffer buffer, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+        Assert.check(bytes.length <= NAME_BYTES, "Section name too long: " + name);
+        buffer.put(bytes);
+        for (int i = bytes.length; i < NAME_BYTES; ++i) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of model file");
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * Collects sections and writes them out as one model file. The file is written next to its
+     * destination and moved into place once complete, so readers never see a half-written model.
+     */
+    public static class Writer {
+
+        private final String kind;
+        private final List<String> names = new ArrayList<>();
+        private final List<ByteBuffer> data = new ArrayList<>();
+
+        public Writer(String kind) {
+            this.kind = kind;
+        }
+
+        /**
+         * Adds a section holding the bytes between the position and the limit of the passed buffer.
+         */
+        public void add(String name, ByteBuffer section) {
+            Assert.check(!names.contains(name), "Duplicate section: " + name);
+            names.add(name);
+            data.add(section.duplicate());
+        }
+
+        public void write(String path) throws IOException {
+            int sectionCount = names.size();
+            ByteBuffer header = allocate(HEADER_BYTES + sectionCount * ENTRY_BYTES + 8);
+            header.put(MAGIC);
+            header.putInt(FORMAT_VERSION);
+            header.putInt(sectionCount);
+            writeName(header, kind);
+
+            long offset = align(header.capacity());
+            for (int i = 0; i < sectionCount; ++i) {
+                CRC32 crc = new CRC32();
+                crc.update(data.get(i).duplicate());
+                writeName(header, names.get(i));
+                header.putLong(offset);
+                header.putLong(data.get(i).remaining());
+                header.putLong(crc.getValue());
+                offset = align(offset + data.get(i).remaining());
+            }
+            CRC32 headerCrc = new CRC32();
+            headerCrc.update(header.duplicate().flip());
+            header.putLong(headerCrc.getValue());
+            header.flip();
+
+            Path target = Paths.get(path).toAbsolutePath();
+            Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(channel, header);
+                long position = header.capacity();
+                for (ByteBuffer section : data) {
+                    position = pad(channel, position);
+                    position += writeFully(channel, section.duplicate());
+                }
+                pad(channel, position);
+                channel.force(true);
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private static long align(long position) {
+            return (position + 7) & ~7L;
+        }
+
+        private static long pad(FileChannel channel, long position) throws IOException {
+            long aligned = align(position);
+            if (aligned > position) {
+                writeFully(channel, ByteBuffer.allocate((int) (aligned - position)));
+            }
+            return aligned;
+        }
+
+        private static int writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+            int n = buffer.remaining();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package edu.stanford.cs276.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sequential files of ints, longs and strings, written and read through a fixed size buffer with
+ * NIO channels, as the sorted runs of an external sort are. Values are little-endian, like in model
+ * files, and a string is its length followed by its chars.
+ */
+public class RunFile {
+
+    private RunFile() { /* private constructor to defeat instantiation */ }
+
+    public static class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+
+        public Writer(Path path, int bufferBytes) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            buffer = ByteBuffer.allocateDirect(bufferBytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        public void writeInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        public void writeLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        public void writeString(String value) throws IOException {
+            writeInt(value.length());
+            for (int i = 0; i < value.length(); ++i) {
+                ensure(2);
+                buffer.putChar(value.charAt(i));
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            channel.close();
+        }
+    }
+
+    public static class Reader implements Closeable {
+        private final Path path;
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+
+        public Reader(Path path, int bufferBytes) throws IOException {
+            this.path = path;
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            buffer = ByteBuffer.allocateDirect(bufferBytes).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.flip();
+        }
+
+        /**
+         * @return false once every value of the file was read
+         */
+        public boolean hasMore() throws IOException {
+            if (!buffer.hasRemaining()) {
+                fill(1);
+            }
+            return buffer.hasRemaining();
+        }
+
+        public int readInt() throws IOException {
+            require(4);
+            return buffer.getInt();
+        }
+
+        public long readLong() throws IOException {
+            require(8);
+            return buffer.getLong();
+        }
+
+        public String readString() throws IOException {
+            char[] chars = new char[readInt()];
+            for (int i = 0; i < chars.length; ++i) {
+                require(2);
+                chars[i] = buffer.getChar();
+            }
+            return new String(chars);
+        }
+
+        private void require(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                fill(bytes);
+                Assert.check(buffer.remaining() >= bytes, path + " is truncated");
+            }
+        }
+
+        // reads more of the file, until at least bytes bytes are buffered or the file ends
+        private void fill(int bytes) throws IOException {
+            buffer.compact();
+            while (buffer.position() < bytes && channel.read(buffer) > 0) {
+                // keep reading
+            }
+            buffer.flip();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package edu.stanford.cs276.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the k elements with the highest scores out of the ones offered to it, in a bounded min-heap,
+ * so that selecting them costs O(n log k) instead of sorting all n elements.
+ * <p>
+ * Scores are compared with {@link Double#compare}. Among elements with the same score, the one
+ * offered last ranks first: this is the order of a stable sort by increasing score followed by a
+ * reverse.
+ */
+public class TopK<T> {
+
+    private final int k;
+    private final Object[] elements;
+    private final double[] scores;
+    private final long[] sequence;
+    private int size = 0;
+    private long offered = 0;
+
+    public TopK(int k) {
+        this.k = k;
+        elements = new Object[k];
+        scores = new double[k];
+        sequence = new long[k];
+    }
+
+    public void offer(T element, double score) {
+        long seq = offered++;
+        if (size < k) {
+            elements[size] = element;
+            scores[size] = score;
+            sequence[size] = seq;
+            siftUp(size++);
+        } else if (k > 0 && ranksBelow(scores[0], sequence[0], score, seq)) {
+            // replace the worst of the kept elements
+            elements[0] = element;
+            scores[0] = score;
+            sequence[0] = seq;
+            siftDown(0);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the kept elements, best first
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> toList() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> a.equals(b) ? 0 : ranksBelow(scores[a], sequence[a], scores[b], sequence[b]) ? 1 : -1);
+        List<T> list = new ArrayList<>(size);
+        for (int i : order) {
+            list.add((T) elements[i]);
+        }
+        return list;
+    }
+
+    /**
+     * Forgets the elements offered so far.
+     */
+    public void clear() {
+        Arrays.fill(elements, 0, size, null);
+        size = 0;
+        offered = 0;
+    }
+
+    // true if the first element ranks below the second one
+    private static boolean ranksBelow(double score1, long seq1, double score2, long seq2) {
+        int c = Double.compare(score1, score2);
+        return c < 0 || (c == 0 && seq1 < seq2);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!ranksBelow(scores[i], sequence[i], scores[parent], sequence[parent])) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int smallest = i;
+            for (int child = 2 * i + 1; child <= 2 * i + 2 && child < size; ++child) {
+                if (ranksBelow(scores[child], sequence[child], scores[smallest], sequence[smallest])) {
+                    smallest = child;
+                }
+            }
+            if (smallest == i) {
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        Object e = elements[i];
+        elements[i] = elements[j];
+        elements[j] = e;
+        double s = scores[i];
+        scores[i] = scores[j];
+        scores[j] = s;
+        long q = sequence[i];
+        sequence[i] = sequence[j];
+        sequence[j] = q;
+    }
+}
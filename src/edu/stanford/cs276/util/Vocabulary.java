@@ -0,0 +1,255 @@
+package edu.stanford.cs276.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Interns words and maps each one to a dense integer id (0, 1, 2, ... in order of first insertion).
+ * The characters of all words are stored back to back in a single buffer, and lookups go through an
+ * open-addressing table of ids, so a word is stored exactly once and every other structure can refer
+ * to it by its id.
+ * <p>
+ * A vocabulary is either built in memory with {@link #add(String)}, or read (read-only) from the
+ * sections of a {@link ModelFile}, in which case its data is never copied onto the heap.
+ */
+public class Vocabulary {
+
+    // characters of all the words, back to back
+    private ByteBuffer charBytes;
+    private CharBuffer chars;
+
+    // id -> offset of the word's first character; offsets[size] is the end of the last word
+    private ByteBuffer offsetBytes;
+    private IntBuffer offsets;
+
+    // open-addressing table: (id + 1) of the word hashed to the slot, 0 for an empty slot
+    private ByteBuffer slotBytes;
+    private IntBuffer slots;
+
+    private int size;
+
+    public Vocabulary() {
+        this(1024);
+    }
+
+    public Vocabulary(int expectedSize) {
+        charBytes = ModelFile.allocate(Math.max(16, expectedSize) * 8 * 2);
+        chars = charBytes.asCharBuffer();
+        offsetBytes = ModelFile.allocate((Math.max(16, expectedSize) + 1) * 4);
+        offsets = offsetBytes.asIntBuffer();
+        slotBytes = ModelFile.allocate(tableSizeFor(expectedSize) * 4);
+        slots = slotBytes.asIntBuffer();
+    }
+
+    private Vocabulary(ByteBuffer charBytes, ByteBuffer offsetBytes, ByteBuffer slotBytes) {
+        this.charBytes = charBytes;
+        this.chars = charBytes.asCharBuffer();
+        this.offsetBytes = offsetBytes;
+        this.offsets = offsetBytes.asIntBuffer();
+        this.slotBytes = slotBytes;
+        this.slots = slotBytes.asIntBuffer();
+        this.size = offsets.limit() - 1;
+    }
+
+    /**
+     * Reads a vocabulary previously written with {@link #write(ModelFile.Writer, String)}.
+     */
+    public static Vocabulary read(ModelFile file, String name) throws IOException {
+        return new Vocabulary(file.section(name + ".chars"), file.section(name + ".offsets"), file.section(name + ".slots"));
+    }
+
+    /**
+     * Adds this vocabulary to the passed writer, as three sections whose names start with the passed name.
+     */
+    public void write(ModelFile.Writer writer, String name) {
+        int charCount = offsets.get(size);
+        writer.add(name + ".chars", charBytes.duplicate().position(0).limit(charCount * 2));
+        writer.add(name + ".offsets", offsetBytes.duplicate().position(0).limit((size + 1) * 4));
+        writer.add(name + ".slots", slotBytes.duplicate().position(0).limit(slots.limit() * 4));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the id of the passed word, or -1 if the word is not in the vocabulary
+     */
+    public int id(CharSequence word) {
+        int entry = slots.get(find(word));
+        return entry - 1;
+    }
+
+    /**
+     * Adds the passed word to the vocabulary if it is not already there.
+     *
+     * @return the id of the word
+     */
+    public int add(String word) {
+        int slot = find(word);
+        int entry = slots.get(slot);
+        if (entry != 0) {
+            return entry - 1;
+        }
+
+        int start = offsets.get(size);
+        int end = start + word.length();
+        if (end > chars.capacity()) {
+            growChars(Math.max(end, chars.capacity() * 2));
+        }
+        if (size + 2 > offsets.capacity()) {
+            growOffsets(offsets.capacity() * 2);
+        }
+        for (int i = 0; i < word.length(); ++i) {
+            chars.put(start + i, word.charAt(i));
+        }
+        int id = size++;
+        offsets.put(size, end);
+        slots.put(slot, id + 1);
+
+        if (size * 2 > slots.capacity()) {
+            rehash(slots.capacity() * 2);
+        }
+        return id;
+    }
+
+    public String word(int id) {
+        int start = offsets.get(id);
+        int end = offsets.get(id + 1);
+        char[] word = new char[end - start];
+        for (int i = 0; i < word.length; ++i) {
+            word[i] = chars.get(start + i);
+        }
+        return new String(word);
+    }
+
+    public int length(int id) {
+        return offsets.get(id + 1) - offsets.get(id);
+    }
+
+    public char charAt(int id, int index) {
+        return chars.get(offsets.get(id) + index);
+    }
+
+    /**
+     * @return the CRC-32 checksum of the words, which is also the checksum of the ".chars" section
+     * recorded by {@link #write(ModelFile.Writer, String)}
+     */
+    public long checksum() {
+        CRC32 crc = new CRC32();
+        crc.update(charBytes.duplicate().position(0).limit(offsets.get(size) * 2));
+        return crc.getValue();
+    }
+
+    public boolean contains(CharSequence word) {
+        return id(word) != -1;
+    }
+
+    /**
+     * Returns a copy of this vocabulary in which ids follow the lexicographic (String.compareTo) order
+     * of the words, and fills the passed array (of length size()) with the new id of every old id.
+     */
+    public Vocabulary sorted(int[] newIds) {
+        String[] words = new String[size];
+        for (int id = 0; id < size; ++id) {
+            words[id] = word(id);
+        }
+        String[] sortedWords = words.clone();
+        Arrays.sort(sortedWords);
+
+        Vocabulary sorted = new Vocabulary(size);
+        for (String w : sortedWords) {
+            sorted.add(w);
+        }
+        for (int id = 0; id < size; ++id) {
+            newIds[id] = sorted.id(words[id]);
+        }
+        return sorted;
+    }
+
+    // returns the slot holding the word, or the empty slot where it would go
+    private int find(CharSequence word) {
+        int mask = slots.capacity() - 1;
+        int slot = mix(hash(word)) & mask;
+        while (true) {
+            int entry = slots.get(slot);
+            if (entry == 0 || matches(entry - 1, word)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private boolean matches(int id, CharSequence word) {
+        int start = offsets.get(id);
+        int length = offsets.get(id + 1) - start;
+        if (length != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (chars.get(start + i) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void growChars(int capacity) {
+        charBytes = ModelFile.grow(charBytes, offsets.get(size) * 2, capacity * 2);
+        chars = charBytes.asCharBuffer();
+    }
+
+    private void growOffsets(int capacity) {
+        offsetBytes = ModelFile.grow(offsetBytes, (size + 1) * 4, capacity * 4);
+        offsets = offsetBytes.asIntBuffer();
+    }
+
+    private void rehash(int capacity) {
+        slotBytes = ModelFile.allocate(capacity * 4);
+        slots = slotBytes.asIntBuffer();
+        int mask = capacity - 1;
+        for (int id = 0; id < size; ++id) {
+            int start = offsets.get(id);
+            int h = 0;
+            for (int i = start; i < offsets.get(id + 1); ++i) {
+                h = 31 * h + chars.get(i);
+            }
+            int slot = mix(h) & mask;
+            while (slots.get(slot) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots.put(slot, id + 1);
+        }
+    }
+
+    // same as String.hashCode(), which Strings cache, but also works for other char sequences
+    private static int hash(CharSequence word) {
+        if (word instanceof String) {
+            return word.hashCode();
+        }
+        int h = 0;
+        for (int i = 0; i < word.length(); ++i) {
+            h = 31 * h + word.charAt(i);
+        }
+        return h;
+    }
+
+    // spreads the bits of the hash code, which are poor in the low positions for short strings
+    static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // smallest power of two that keeps the table at most half full
+    static int tableSizeFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}